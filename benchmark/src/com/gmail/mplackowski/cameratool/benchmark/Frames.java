@@ -0,0 +1,54 @@
+package com.gmail.mplackowski.cameratool.benchmark;
+
+import java.util.Random;
+
+/**
+ * Synthetic NV21 preview frames: noisy background with dark text-like
+ * strokes, so content dependent stages see realistic input.
+ */
+public class Frames {
+
+	public static final int[][] SIZES = { { 640, 480 }, { 1280, 720 },
+			{ 1920, 1080 } };
+
+	public static byte[] nv21(int width, int height, long seed) {
+		Random random = new Random(seed);
+		byte[] frame = new byte[width * height * 3 / 2];
+
+		// 1. Luma: light noisy paper
+		for (int i = 0; i < width * height; i++)
+			frame[i] = (byte) (180 + random.nextInt(40));
+
+		// 2. Dark strokes arranged in text lines
+		int lineHeight = Math.max(8, height / 20);
+		for (int top = height / 4; top + lineHeight < height * 3 / 4; top += lineHeight * 2) {
+			for (int x = width / 8; x < width * 7 / 8; x++) {
+				if ((x / Math.max(2, lineHeight / 4)) % 3 == 0)
+					continue;
+				for (int y = top; y < top + lineHeight; y++)
+					if (random.nextInt(4) != 0)
+						frame[y * width + x] = (byte) (20 + random.nextInt(40));
+			}
+		}
+
+		// 3. Neutral chroma
+		for (int i = width * height; i < frame.length; i++)
+			frame[i] = (byte) 128;
+		return frame;
+	}
+
+	/**
+	 * Crop rectangles in rotated space: full frame, centered half and a
+	 * wide text band, as left, top, right, bottom.
+	 */
+	public static int[][] crops(int rotatedWidth, int rotatedHeight) {
+		return new int[][] {
+				{ 0, 0, rotatedWidth, rotatedHeight },
+				{ rotatedWidth / 4, rotatedHeight / 4, rotatedWidth * 3 / 4,
+						rotatedHeight * 3 / 4 },
+				{ rotatedWidth / 10, rotatedHeight * 2 / 5,
+						rotatedWidth * 9 / 10, rotatedHeight * 11 / 20 } };
+	}
+
+	public static final String[] CROP_NAMES = { "full", "center", "band" };
+}
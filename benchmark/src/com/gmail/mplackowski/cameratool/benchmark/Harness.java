@@ -0,0 +1,87 @@
+package com.gmail.mplackowski.cameratool.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * Minimal benchmark runner: warms an operation up, then runs it for a fixed
+ * time and reports throughput and bytes allocated per operation.
+ *
+ * Allocation is read from the HotSpot per-thread allocation counter, it is
+ * reported as -1 on VMs without one.
+ */
+public class Harness {
+
+	public interface Op {
+		/** @return any value, it is consumed so the work is not optimized away */
+		public int run();
+	}
+
+	private final long mWarmupMillis;
+	private final long mMeasureMillis;
+	private final ThreadMXBean mThreads;
+	private int mSink;
+
+	public Harness(long warmupMillis, long measureMillis) {
+		mWarmupMillis = warmupMillis;
+		mMeasureMillis = measureMillis;
+		mThreads = ManagementFactory.getThreadMXBean();
+	}
+
+	public static void header() {
+		System.out.println(String.format(Locale.US, "%-48s %14s %12s %12s %12s",
+				"benchmark", "ops/s", "ns/op", "B/op", "MB/s alloc"));
+	}
+
+	public void run(String name, Op op) {
+		// 1. Warm up
+		loop(op, mWarmupMillis);
+
+		// 2. Measure
+		long allocatedBefore = allocatedBytes();
+		long start = System.nanoTime();
+		long ops = loop(op, mMeasureMillis);
+		long elapsed = System.nanoTime() - start;
+		long allocatedAfter = allocatedBytes();
+
+		double opsPerSecond = ops * 1e9 / elapsed;
+		double nanosPerOp = (double) elapsed / ops;
+		double bytesPerOp = -1;
+		double allocRate = -1;
+		if (allocatedBefore >= 0) {
+			long allocated = allocatedAfter - allocatedBefore;
+			bytesPerOp = (double) allocated / ops;
+			allocRate = allocated / 1048576.0 * 1e9 / elapsed;
+		}
+		System.out.println(String.format(Locale.US, "%-48s %14.1f %12.1f %12.1f %12.2f",
+				name, opsPerSecond, nanosPerOp, bytesPerOp, allocRate));
+	}
+
+	/** Keeps the results of the operations alive */
+	public int sink() {
+		return mSink;
+	}
+
+	private long loop(Op op, long millis) {
+		long deadline = System.nanoTime() + millis * 1000000L;
+		long ops = 0;
+		int sink = 0;
+		do {
+			for (int i = 0; i < 16; i++)
+				sink += op.run();
+			ops += 16;
+		} while (System.nanoTime() < deadline);
+		mSink += sink;
+		return ops;
+	}
+
+	private long allocatedBytes() {
+		if (mThreads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) mThreads;
+			if (threads.isThreadAllocatedMemorySupported())
+				return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,81 @@
+package com.gmail.mplackowski.cameratool.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.gmail.mplackowski.cameratool.BlockingFrameQueue;
+import com.gmail.mplackowski.cameratool.FakeOcrEngine;
+import com.gmail.mplackowski.cameratool.FrameEngine;
+import com.gmail.mplackowski.cameratool.FrameReplay;
+import com.gmail.mplackowski.cameratool.OCRPipeline;
+
+/**
+ * End to end throughput of the pipeline on a frame recording made with
+ * CameraTool.recordFrames, recognition is simulated with
+ * {@link FakeOcrEngine}.
+ *
+ * Usage: ReplayBenchmark file [workers] [ocrMillis] [recorded]
+ *
+ * With "recorded" the frames are sent at their capture intervals,
+ * otherwise as fast as the workers take them.
+ */
+public class ReplayBenchmark {
+
+	private static final int BUFFERS = 3;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("Usage: ReplayBenchmark file [workers] [ocrMillis] [recorded]");
+			return;
+		}
+		File file = new File(args[0]);
+		int workers = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		long ocrNanos = TimeUnit.MILLISECONDS.toNanos(
+				args.length > 2 ? Long.parseLong(args[2]) : 0);
+		boolean recorded = args.length > 3 && "recorded".equals(args[3]);
+
+		final AtomicLong results = new AtomicLong();
+		final AtomicLong lastResult = new AtomicLong();
+		FrameReplay replay = new FrameReplay(file, BUFFERS);
+		OCRPipeline pipeline = new OCRPipeline(
+				FakeOcrEngine.factory(null, 80, ocrNanos, 0), workers,
+				new BlockingFrameQueue(BUFFERS, BUFFERS, replay), replay,
+				new OCRPipeline.Callback() {
+					@Override
+					public void onFrameCropped(FrameEngine crop) {
+					}
+
+					@Override
+					public void onTextRegions(FrameEngine crop, int[] boxes, int count) {
+					}
+
+					@Override
+					public void onTextRecognized(long sequence, String text,
+							float accuracy) {
+						results.incrementAndGet();
+						lastResult.set(System.nanoTime());
+					}
+				});
+
+		pipeline.start(null, null);
+		long start = System.nanoTime();
+		int submitted = replay.play(pipeline, recorded);
+
+		// frames in flight, outdated ones are skipped by the workers
+		long quiet = Math.max(TimeUnit.MILLISECONDS.toNanos(200), ocrNanos * 4);
+		while (replay.available() < BUFFERS
+				|| System.nanoTime() - Math.max(lastResult.get(), start) < quiet)
+			Thread.sleep(1);
+		long elapsed = Math.max(lastResult.get(), start) - start;
+		pipeline.stop();
+		if (!pipeline.awaitTermination(1000))
+			System.out.println("workers did not stop");
+
+		System.out.printf("%d frames recorded, %d submitted, %d skipped, %d results%n",
+				replay.frames(), submitted, replay.skipped(), results.get());
+		System.out.printf("%.1f ms, %.1f results/s, %.1f frames/s%n", elapsed / 1e6,
+				results.get() * 1e9 / Math.max(1, elapsed),
+				submitted * 1e9 / Math.max(1, elapsed));
+	}
+}
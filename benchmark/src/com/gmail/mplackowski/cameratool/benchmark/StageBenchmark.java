@@ -0,0 +1,211 @@
+package com.gmail.mplackowski.cameratool.benchmark;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.gmail.mplackowski.cameratool.CropGeometry;
+import com.gmail.mplackowski.cameratool.FrameEngine;
+import com.gmail.mplackowski.cameratool.Preprocessor;
+import com.gmail.mplackowski.cameratool.ResultSequencer;
+import com.gmail.mplackowski.cameratool.TextPostProcessor;
+
+/**
+ * Benchmarks the per-frame stages of the frame to text path on synthetic
+ * 640x480, 1280x720 and 1920x1080 NV21 frames:
+ *
+ * - crop: luma crop of the picker rectangle, replaces getBitmapImageFromYUV
+ * - rotate: crop with 90/180/270 degrees, replaces rotateBitmap, and the
+ *   same crop from the precomputed rows of a CropGeometry
+ * - argb: color crop for bitmaps, replaces the full frame rotation in
+ *   rotateBitmap
+ * - preprocess: downscale and binarization of the center crop, with the
+ *   size handed to the engine
+ * - cleanup: the former regex run on every recognized text, the same
+ *   regex precompiled and the TextPostProcessor that replaces it
+ * - delivery: result sequencing in front of updateOCR
+ *
+ * Usage: StageBenchmark [warmupMillis] [measureMillis]
+ */
+public class StageBenchmark {
+
+	private static final String[] TEXTS = {
+			"INVOICE No. 2014/08-1123\nTotal: 1,299.00 EUR",
+			"Serial: A7F3-99KX-0021 (c) ACME Corp.",
+			"  ~~ ,. ''  ",
+			"The quick brown fox jumps over the lazy dog 0123456789" };
+
+	public static void main(String[] args) {
+		long warmup = args.length > 0 ? Long.parseLong(args[0]) : 500;
+		long measure = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+		Harness harness = new Harness(warmup, measure);
+
+		Harness.header();
+		for (int[] size : Frames.SIZES) {
+			crop(harness, size[0], size[1]);
+			rotate(harness, size[0], size[1]);
+			argb(harness, size[0], size[1]);
+			preprocess(harness, size[0], size[1]);
+		}
+		cleanup(harness);
+		delivery(harness);
+
+		System.out.println("sink " + harness.sink());
+	}
+
+	private static void crop(Harness harness, final int width, final int height) {
+		final byte[] frame = Frames.nv21(width, height, 1);
+		final FrameEngine engine = new FrameEngine();
+		int[][] crops = Frames.crops(width, height);
+		for (int c = 0; c < crops.length; c++) {
+			final int[] crop = crops[c];
+			harness.run("crop " + width + "x" + height + " " + Frames.CROP_NAMES[c],
+					new Harness.Op() {
+						@Override
+						public int run() {
+							engine.crop(frame, width, height, 0, crop[0],
+									crop[1], crop[2], crop[3]);
+							return engine.luma()[0];
+						}
+					});
+		}
+	}
+
+	private static void rotate(Harness harness, final int width, final int height) {
+		final byte[] frame = Frames.nv21(width, height, 2);
+		final FrameEngine engine = new FrameEngine();
+		for (final int degrees : new int[] { 90, 180, 270 }) {
+			boolean portrait = FrameEngine.isPortrait(degrees);
+			final int[] crop = Frames.crops(portrait ? height : width,
+					portrait ? width : height)[1];
+			harness.run("rotate " + width + "x" + height + " " + degrees,
+					new Harness.Op() {
+						@Override
+						public int run() {
+							engine.crop(frame, width, height, degrees, crop[0],
+									crop[1], crop[2], crop[3]);
+							return engine.luma()[0];
+						}
+					});
+			final CropGeometry geometry = new CropGeometry(width, height, degrees,
+					crop[0], crop[1], crop[2], crop[3]);
+			harness.run("rotate " + width + "x" + height + " " + degrees + " geometry",
+					new Harness.Op() {
+						@Override
+						public int run() {
+							engine.crop(frame, geometry);
+							return engine.luma()[0];
+						}
+					});
+		}
+	}
+
+	private static void argb(Harness harness, final int width, final int height) {
+		final byte[] frame = Frames.nv21(width, height, 4);
+		final int[] crop = Frames.crops(height, width)[1];
+		final int[] pixels = new int[(crop[2] - crop[0]) * (crop[3] - crop[1])];
+		harness.run("argb " + width + "x" + height + " 90 center", new Harness.Op() {
+			@Override
+			public int run() {
+				FrameEngine.cropArgb(frame, width, height, 90, crop[0], crop[1],
+						crop[2], crop[3], pixels);
+				return pixels[0];
+			}
+		});
+	}
+
+	private static void preprocess(Harness harness, int width, int height) {
+		FrameEngine engine = new FrameEngine();
+		int[] crop = Frames.crops(width, height)[1];
+		engine.crop(Frames.nv21(width, height, 3), width, height, 0, crop[0],
+				crop[1], crop[2], crop[3]);
+		final byte[] luma = engine.luma();
+		final int w = engine.width();
+		final int h = engine.height();
+
+		int[] xHeights = { 0, 0, 0, 12 };
+		Preprocessor.Binarization[] binarizations = { Preprocessor.Binarization.NONE,
+				Preprocessor.Binarization.OTSU, Preprocessor.Binarization.SAUVOLA,
+				Preprocessor.Binarization.SAUVOLA };
+		for (int p = 0; p < xHeights.length; p++) {
+			if (xHeights[p] == 0 && binarizations[p] == Preprocessor.Binarization.NONE)
+				continue;
+			final Preprocessor preprocessor = new Preprocessor(xHeights[p], binarizations[p]);
+			preprocessor.process(luma, w, h);
+			harness.run("preprocess " + width + "x" + height + " "
+					+ binarizations[p].name().toLowerCase()
+					+ (xHeights[p] > 0 ? " x" + xHeights[p] : "") + " " + w + "x" + h
+					+ "->" + preprocessor.width() + "x" + preprocessor.height(),
+					new Harness.Op() {
+						@Override
+						public int run() {
+							preprocessor.process(luma, w, h);
+							return preprocessor.output()[0];
+						}
+					});
+		}
+	}
+
+	private static void cleanup(Harness harness) {
+		final Matcher matcher = Pattern.compile("[^a-zA-Z0-9]+").matcher("");
+		final TextPostProcessor processor = TextPostProcessor.alphanumeric();
+		final TextPostProcessor serial = new TextPostProcessor()
+				.whitelist(TextPostProcessor.ALPHANUMERIC + "-")
+				.trim(true)
+				.letterCase(TextPostProcessor.Case.UPPER)
+				.validator(TextPostProcessor.contains("[A-Z0-9]{4}-[A-Z0-9]{4}-[A-Z0-9]{4}"));
+		for (int t = 0; t < TEXTS.length; t++) {
+			final String text = TEXTS[t];
+			harness.run("cleanup regex text" + t, new Harness.Op() {
+				@Override
+				public int run() {
+					return text.replaceAll("[^a-zA-Z0-9]+", " ").length();
+				}
+			});
+			harness.run("cleanup precompiled text" + t, new Harness.Op() {
+				@Override
+				public int run() {
+					return matcher.reset(text).replaceAll(" ").length();
+				}
+			});
+			harness.run("cleanup processor text" + t, new Harness.Op() {
+				@Override
+				public int run() {
+					return processor.process(text).length();
+				}
+			});
+			harness.run("cleanup serial text" + t, new Harness.Op() {
+				@Override
+				public int run() {
+					return serial.process(text).length();
+				}
+			});
+		}
+	}
+
+	private static void delivery(Harness harness) {
+		final int[] delivered = new int[1];
+		final ResultSequencer sequencer = new ResultSequencer(4,
+				new ResultSequencer.Sink() {
+					@Override
+					public void deliver(long sequence, String text, float accuracy) {
+						delivered[0]++;
+					}
+				});
+		final long[] sequence = new long[1];
+		harness.run("delivery sequencer 4 in flight", new Harness.Op() {
+			@Override
+			public int run() {
+				long s = sequence[0];
+				for (int i = 0; i < 4; i++)
+					sequencer.begin(s + i);
+				// complete out of order
+				sequencer.complete(s + 2, TEXTS[0], 80f);
+				sequencer.complete(s + 1, TEXTS[1], 80f);
+				sequencer.cancel(s + 3);
+				sequencer.complete(s, TEXTS[3], 80f);
+				sequence[0] = s + 4;
+				return delivered[0];
+			}
+		});
+	}
+}
@@ -0,0 +1,215 @@
+package com.gmail.mplackowski.cameratool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+
+/**
+ * Saves cropped frames as JPEG on its own thread, so disk I/O never delays
+ * recognition.
+ *
+ * Crops are copied into a bounded set of reusable slots, when all of them
+ * are waiting the oldest one is replaced. Files keep the PreviewOCR-N.jpg
+ * ring naming and are written to a temporary file that is renamed over the
+ * old one, so readers never see a half written image.
+ *
+ * {@link #shutdown()} does not interrupt the thread, a write in progress
+ * is finished and the crops still waiting are dropped.
+ */
+public class ArchiveWriter extends Thread {
+
+	private static final String TAG = "ArchiveWriter";
+	private static final int JPEG_QUALITY = 90;
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private static class Slot {
+		byte[] luma = new byte[0];
+		int width;
+		int height;
+	}
+
+	/** ByteArrayOutputStream that exposes its buffer instead of copying it */
+	private static class EncodeBuffer extends ByteArrayOutputStream {
+		EncodeBuffer(int size) {
+			super(size);
+		}
+
+		byte[] buffer() {
+			return buf;
+		}
+	}
+
+	private final String mDirectory;
+	private final int mMaxPicture;
+	private final BlockingQueue<Slot> mFree;
+	private final BlockingQueue<Slot> mPending;
+
+	private final EncodeBuffer mJpeg = new EncodeBuffer(64 * 1024);
+	private ByteBuffer mJpegBuffer;
+	private byte[] mNV21 = new byte[0];
+	private int mPictureCounter;
+
+	private final AtomicLong mWritten = new AtomicLong();
+	private final AtomicLong mDropped = new AtomicLong();
+
+	/** Queued by shutdown to wake the writer */
+	private final Slot mStop = new Slot();
+	private volatile boolean mShutdown;
+
+	/**
+	 * @param maxPicture highest N of the PreviewOCR-N.jpg ring
+	 * @param capacity number of crops that can wait to be written
+	 */
+	public ArchiveWriter(String directory, int maxPicture, int capacity) {
+		super(TAG);
+		mDirectory = directory;
+		mMaxPicture = maxPicture;
+		mFree = new ArrayBlockingQueue<Slot>(capacity);
+		mPending = new ArrayBlockingQueue<Slot>(capacity);
+		for (int i = 0; i < capacity; i++)
+			mFree.offer(new Slot());
+	}
+
+	/** Copies the crop and queues it for writing, never blocks */
+	public void submit(FrameEngine crop) {
+		if (mShutdown)
+			return;
+		Slot slot = mFree.poll();
+		if (slot == null) {
+			// drop the oldest waiting crop
+			slot = mPending.poll();
+			if (slot == null)
+				return;
+			mDropped.incrementAndGet();
+		}
+
+		int size = crop.width() * crop.height();
+		if (slot.luma.length < size)
+			slot.luma = new byte[size];
+		System.arraycopy(crop.luma(), 0, slot.luma, 0, size);
+		slot.width = crop.width();
+		slot.height = crop.height();
+
+		if (!mPending.offer(slot)) {
+			mDropped.incrementAndGet();
+			mFree.offer(slot);
+		}
+	}
+
+	/** Stops the writer once the current write is done, returns immediately */
+	public void shutdown() {
+		mShutdown = true;
+		// make room for the stop slot, the waiting crops are not written
+		while (!mPending.offer(mStop)) {
+			Slot slot = mPending.poll();
+			if (slot != null)
+				mFree.offer(slot);
+		}
+	}
+
+	@Override
+	public void run() {
+		new File(mDirectory).mkdirs();
+		while (true) {
+			Slot slot;
+			try {
+				slot = mPending.take();
+			} catch (InterruptedException e) {
+				break;
+			}
+			if (slot == mStop || mShutdown)
+				break;
+			try {
+				write(slot);
+				mWritten.incrementAndGet();
+			} catch (IOException e) {
+				OCRLog.e(TAG, "Unable to save preview " + e);
+			} finally {
+				mFree.offer(slot);
+			}
+		}
+	}
+
+	private void write(Slot slot) throws IOException {
+		if (mPictureCounter > mMaxPicture)
+			mPictureCounter = 0;
+
+		// 1. Encode, NV21 with neutral chroma gives a grayscale JPEG
+		int width = slot.width & ~1;
+		int height = slot.height & ~1;
+		if (width == 0 || height == 0)
+			return;
+		encode(slot, width, height);
+
+		// 2. Write to a temporary file and rename it over the ring entry
+		String name = "PreviewOCR-" + mPictureCounter + ".jpg";
+		File file = new File(mDirectory, name);
+		File temp = new File(mDirectory, name + TEMP_SUFFIX);
+
+		boolean written = false;
+		try {
+			FileOutputStream out = new FileOutputStream(temp);
+			try {
+				FileChannel channel = out.getChannel();
+				byte[] jpeg = mJpeg.buffer();
+				if (mJpegBuffer == null || mJpegBuffer.array() != jpeg)
+					mJpegBuffer = ByteBuffer.wrap(jpeg);
+				mJpegBuffer.clear();
+				mJpegBuffer.limit(mJpeg.size());
+				while (mJpegBuffer.hasRemaining())
+					channel.write(mJpegBuffer);
+			} finally {
+				out.close();
+			}
+			if (!temp.renameTo(file))
+				throw new IOException("Unable to rename " + temp + " to " + file);
+			written = true;
+		} finally {
+			// a failed write leaves nothing behind
+			if (!written)
+				temp.delete();
+		}
+
+		mPictureCounter++;
+	}
+
+	private void encode(Slot slot, int width, int height) {
+		int lumaSize = width * height;
+		int size = FrameBufferPool.nv21Size(width, height);
+		if (mNV21.length < size) {
+			mNV21 = new byte[size];
+			// chroma stays neutral, only the luma is rewritten
+			for (int i = 0; i < mNV21.length; i++)
+				mNV21[i] = (byte) 128;
+		} else {
+			for (int i = lumaSize; i < size; i++)
+				mNV21[i] = (byte) 128;
+		}
+		for (int y = 0; y < height; y++)
+			System.arraycopy(slot.luma, y * slot.width, mNV21, y * width, width);
+
+		mJpeg.reset();
+		YuvImage image = new YuvImage(mNV21, ImageFormat.NV21, width, height, null);
+		image.compressToJpeg(new Rect(0, 0, width, height), JPEG_QUALITY, mJpeg);
+	}
+
+	/** Crops written to disk */
+	public long written() {
+		return mWritten.get();
+	}
+
+	/** Crops replaced before they could be written */
+	public long dropped() {
+		return mDropped.get();
+	}
+}
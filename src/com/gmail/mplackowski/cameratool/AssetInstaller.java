@@ -0,0 +1,229 @@
+package com.gmail.mplackowski.cameratool;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import android.content.res.AssetManager;
+
+/**
+ * Copies the traineddata of the OCR languages out of the assets into
+ * dataPath/tessdata/ on a background thread.
+ *
+ * The manifest asset lists "file size sha1" per line. A copy is written to
+ * a temporary file, hashed on the way and only renamed into place when
+ * size and hash match, so an interrupted copy is never taken for a good
+ * one. Verified files get a ".sha1" stamp next to them and are not hashed
+ * again while the manifest entry does not change. Files missing from the
+ * manifest are copied when they do not exist yet, as before.
+ */
+public class AssetInstaller {
+
+	private static final String TAG = "AssetInstaller";
+
+	public static final String TESSDATA = "tessdata/";
+	public static final String MANIFEST = TESSDATA + "manifest.txt";
+	private static final String STAMP_SUFFIX = ".sha1";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final AssetManager mAssets;
+	private final File mDirectory;
+	private final Map<String, Future<Boolean>> mInstalls = new HashMap<String, Future<Boolean>>();
+	private Map<String, String[]> mManifest;
+
+	public AssetInstaller(AssetManager assets, String dataPath) {
+		mAssets = assets;
+		mDirectory = new File(dataPath, TESSDATA);
+	}
+
+	/**
+	 * Starts installing the languages, joined by '+' as for Tesseract, e.g.
+	 * "eng+deu". Asking again returns the running or finished install.
+	 *
+	 * @return true once every language is in place, false if one failed
+	 */
+	public synchronized Future<Boolean> install(final String languages) {
+		Future<Boolean> install = mInstalls.get(languages);
+		// a failed install is tried again
+		if (install != null && !(install.isDone() && !succeeded(install)))
+			return install;
+		FutureTask<Boolean> task = new FutureTask<Boolean>(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				boolean installed = true;
+				for (String language : languages.split("\\+"))
+					installed &= installLanguage(language);
+				return installed;
+			}
+		});
+		mInstalls.put(languages, task);
+		new Thread(task, TAG).start();
+		return task;
+	}
+
+	private static boolean succeeded(Future<Boolean> install) {
+		try {
+			return install.get();
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	private boolean installLanguage(String language) {
+		String name = language + ".traineddata";
+		long start = System.nanoTime();
+		try {
+			if (!mDirectory.isDirectory() && !mDirectory.mkdirs())
+				throw new IOException("Unable to create " + mDirectory);
+			String[] entry = manifest().get(name);
+			File file = new File(mDirectory, name);
+			if (isInstalled(file, entry))
+				return true;
+
+			copy(TESSDATA + name, file, entry);
+			if (OCRLog.D) OCRLog.d(TAG, name + " installed in "
+					+ (System.nanoTime() - start) / 1000000 + " ms");
+			return true;
+		} catch (IOException e) {
+			OCRLog.e(TAG, "Unable to install " + name + " " + e);
+			return false;
+		}
+	}
+
+	/** Size and stamp match the manifest, or the file exists when it has no entry */
+	private boolean isInstalled(File file, String[] entry) throws IOException {
+		if (!file.exists())
+			return false;
+		if (entry == null)
+			return true;
+		if (file.length() != Long.parseLong(entry[1]))
+			return false;
+		return entry[2].equalsIgnoreCase(readStamp(file));
+	}
+
+	/** Copies through a temporary file that is renamed once it checks out */
+	private void copy(String asset, File file, String[] entry) throws IOException {
+		MessageDigest digest = sha1();
+		File temp = new File(file.getPath() + TEMP_SUFFIX);
+		InputStream in = mAssets.open(asset, AssetManager.ACCESS_STREAMING);
+		long size = 0;
+		try {
+			FileOutputStream out = new FileOutputStream(temp);
+			try {
+				ReadableByteChannel source = Channels.newChannel(in);
+				FileChannel target = out.getChannel();
+				ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+				while (source.read(buffer) >= 0 || buffer.position() > 0) {
+					buffer.flip();
+					digest.update(buffer.array(), 0, buffer.limit());
+					size += buffer.limit();
+					while (buffer.hasRemaining())
+						target.write(buffer);
+					buffer.clear();
+				}
+				target.force(false);
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+
+		String hash = hex(digest.digest());
+		if (entry != null && (size != Long.parseLong(entry[1])
+				|| !entry[2].equalsIgnoreCase(hash))) {
+			temp.delete();
+			throw new IOException(asset + " does not match the manifest, " + size
+					+ " bytes sha1 " + hash);
+		}
+		file.delete();
+		if (!temp.renameTo(file))
+			throw new IOException("Unable to rename " + temp);
+		writeStamp(file, hash);
+	}
+
+	/** file -> {file, size, sha1} from the manifest asset, empty without one */
+	private synchronized Map<String, String[]> manifest() throws IOException {
+		if (mManifest != null)
+			return mManifest;
+		Map<String, String[]> manifest = new HashMap<String, String[]>();
+		InputStream in;
+		try {
+			in = mAssets.open(MANIFEST);
+		} catch (FileNotFoundException e) {
+			return mManifest = manifest;
+		}
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(in, "US-ASCII"));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#"))
+					continue;
+				String[] entry = line.split("\\s+");
+				if (entry.length != 3)
+					throw new IOException("Bad manifest line " + line);
+				manifest.put(entry[0], entry);
+			}
+		} finally {
+			in.close();
+		}
+		return mManifest = manifest;
+	}
+
+	private static String readStamp(File file) throws IOException {
+		File stamp = new File(file.getPath() + STAMP_SUFFIX);
+		if (!stamp.exists())
+			return null;
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(stamp), "US-ASCII"));
+		try {
+			return reader.readLine();
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static void writeStamp(File file, String hash) throws IOException {
+		FileOutputStream out = new FileOutputStream(file.getPath() + STAMP_SUFFIX);
+		try {
+			out.write(hash.getBytes("US-ASCII"));
+		} finally {
+			out.close();
+		}
+	}
+
+	private static MessageDigest sha1() throws IOException {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("SHA-1 not available");
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+}
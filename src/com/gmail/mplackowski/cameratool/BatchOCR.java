@@ -0,0 +1,411 @@
+package com.gmail.mplackowski.cameratool;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless OCR of stored images, e.g. saved previews or frame recordings,
+ * on a pool of engine instances.
+ *
+ * Every worker has its own deque of tasks and, when it runs dry, steals
+ * from the tail of the others, so a few expensive images do not leave the
+ * other workers idle. {@link #submit(Task)} blocks once queueSize tasks per
+ * worker are waiting. Images go through the same crop, preprocessing and
+ * text cleanup as preview frames and results are sent to the sink as
+ * they finish, in no particular order.
+ *
+ * {@link #shutdown()} drops the queued tasks, they are sent to
+ * {@link Sink#onError(Task, Exception)} with a CancellationException and
+ * count as finished. A worker whose engine cannot be initialized exits and
+ * leaves its tasks to the others, when none is left the queued tasks fail
+ * the same way and further tasks are refused.
+ */
+public class BatchOCR {
+
+	private static final String TAG = "BatchOCR";
+
+	/**
+	 * Receives results on the worker threads, dropped tasks on the thread
+	 * that drops them
+	 */
+	public interface Sink {
+		public void onResult(Task task, String text, float accuracy);
+
+		public void onError(Task task, Exception e);
+	}
+
+	/** Image to recognize, loaded on the worker that runs it */
+	public static abstract class Task {
+
+		private final String mName;
+
+		public Task(String name) {
+			mName = name;
+		}
+
+		public String name() {
+			return mName;
+		}
+
+		/** Loads the luma plane and optionally the crop of the image */
+		protected abstract void load(Image image) throws IOException;
+	}
+
+	/** Reusable luma buffer of a worker with the crop to recognize */
+	public static class Image {
+
+		private byte[] mLuma = new byte[0];
+		private int mWidth;
+		private int mHeight;
+		private int mDegrees;
+		private int mLeft;
+		private int mTop;
+		private int mRight;
+		private int mBottom;
+
+		/**
+		 * Sizes the image and resets the crop to all of it.
+		 *
+		 * @return buffer of at least width * height bytes to fill, row by row
+		 */
+		public byte[] luma(int width, int height) {
+			if (mLuma.length < width * height)
+				mLuma = new byte[width * height];
+			mWidth = width;
+			mHeight = height;
+			crop(0, 0, 0, width, height);
+			return mLuma;
+		}
+
+		/** Crop in rotated space, as for {@link FrameEngine} */
+		public void crop(int degrees, int left, int top, int right, int bottom) {
+			mDegrees = degrees;
+			mLeft = left;
+			mTop = top;
+			mRight = right;
+			mBottom = bottom;
+		}
+	}
+
+	private final OcrEngine.Factory mEngineFactory;
+	private final Sink mSink;
+	private final Worker[] mWorkers;
+	private final LinkedBlockingDeque<Task>[] mDeques;
+	private final Semaphore mSpace;
+	private final Semaphore mTasks = new Semaphore(0);
+	private final AtomicInteger mNextDeque = new AtomicInteger();
+
+	private final Object mLock = new Object();
+	private long mSubmitted;
+	private long mFinished;
+	private final AtomicLong mCompleted = new AtomicLong();
+	private final AtomicLong mFailed = new AtomicLong();
+	private final AtomicLong mDropped = new AtomicLong();
+	private final AtomicLong mStolen = new AtomicLong();
+	private final AtomicLong mPixels = new AtomicLong();
+	private long mStartTime;
+
+	private volatile int mTargetXHeight;
+	private volatile Preprocessor.Binarization mBinarization = Preprocessor.Binarization.NONE;
+	private volatile TextPostProcessor mPostProcessor = TextPostProcessor.alphanumeric();
+
+	private String mDataPath;
+	private String mLanguage;
+	private volatile boolean mShouldWork;
+	private volatile boolean mShutdown;
+	/** Workers whose engine is initialized or still initializing */
+	private final AtomicInteger mEngines = new AtomicInteger();
+	private volatile boolean mNoEngines;
+
+	/** @param queueSize tasks waiting per worker before submit blocks */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public BatchOCR(OcrEngine.Factory engineFactory, int workers, int queueSize,
+			Sink sink) {
+		if (workers < 1 || queueSize < 1)
+			throw new IllegalArgumentException("Workers and queue size must be positive");
+		mEngineFactory = engineFactory;
+		mSink = sink;
+		mWorkers = new Worker[workers];
+		mDeques = new LinkedBlockingDeque[workers];
+		for (int i = 0; i < workers; i++)
+			mDeques[i] = new LinkedBlockingDeque<Task>(queueSize);
+		mSpace = new Semaphore(workers * queueSize);
+	}
+
+	public void start(String dataPath, String language) {
+		if (mShouldWork || mShutdown)
+			return;
+		mDataPath = dataPath;
+		mLanguage = language;
+		mShouldWork = true;
+		mEngines.set(mWorkers.length);
+		mStartTime = System.nanoTime();
+		for (int i = 0; i < mWorkers.length; i++) {
+			mWorkers[i] = new Worker(i);
+			mWorkers[i].start();
+		}
+	}
+
+	/** Same preprocessing as {@link OCRPipeline#preprocessing(int, Preprocessor.Binarization)} */
+	public BatchOCR preprocessing(int targetXHeight,
+			Preprocessor.Binarization binarization) {
+		mTargetXHeight = targetXHeight;
+		mBinarization = binarization;
+		return this;
+	}
+
+	/** Same text cleanup as {@link OCRPipeline#postProcessor(TextPostProcessor)} */
+	public BatchOCR postProcessor(TextPostProcessor postProcessor) {
+		mPostProcessor = postProcessor;
+		return this;
+	}
+
+	/**
+	 * Queues the task, blocks while the workers are behind.
+	 *
+	 * @throws IllegalStateException after shutdown or when no engine could
+	 *  be initialized
+	 */
+	public void submit(Task task) throws InterruptedException {
+		checkAccepting();
+		mSpace.acquire();
+		synchronized (mLock) {
+			if (mShutdown) {
+				// pass the space on to the next blocked submit
+				mSpace.release();
+				checkAccepting();
+			}
+			mSubmitted++;
+		}
+		// a free slot is guaranteed by mSpace
+		int first = (mNextDeque.getAndIncrement() & Integer.MAX_VALUE) % mDeques.length;
+		for (int i = 0; !mDeques[(first + i) % mDeques.length].offerLast(task); i++)
+			;
+		mTasks.release();
+		// shut down meanwhile, the task may have missed the drop
+		if (mShutdown)
+			drop(rejection());
+	}
+
+	/** Waits until every submitted task has finished */
+	public void awaitCompletion() throws InterruptedException {
+		synchronized (mLock) {
+			while (mFinished < mSubmitted)
+				mLock.wait();
+		}
+	}
+
+	/**
+	 * Stops the workers and drops the queued tasks, tasks being recognized
+	 * finish. Blocked and later submits are refused.
+	 */
+	public void shutdown() {
+		synchronized (mLock) {
+			if (mShutdown)
+				return;
+			mShutdown = true;
+		}
+		mShouldWork = false;
+		for (Worker worker : mWorkers)
+			if (worker != null)
+				worker.interrupt();
+		drop(rejection());
+	}
+
+	public long submitted() {
+		synchronized (mLock) {
+			return mSubmitted;
+		}
+	}
+
+	public long completed() {
+		return mCompleted.get();
+	}
+
+	public long failed() {
+		return mFailed.get();
+	}
+
+	/** Queued tasks dropped by shutdown or for want of an engine */
+	public long dropped() {
+		return mDropped.get();
+	}
+
+	/** Workers with an initialized or initializing engine */
+	public int engines() {
+		return mEngines.get();
+	}
+
+	/** Tasks a worker took from the deque of another */
+	public long stolen() {
+		return mStolen.get();
+	}
+
+	/** Tasks finished per second since start */
+	public float imagesPerSecond() {
+		long elapsed = System.nanoTime() - mStartTime;
+		return elapsed <= 0 ? 0 : (mCompleted.get() + mFailed.get()) * 1e9f / elapsed;
+	}
+
+	/** Cropped pixels recognized per second since start */
+	public float pixelsPerSecond() {
+		long elapsed = System.nanoTime() - mStartTime;
+		return elapsed <= 0 ? 0 : mPixels.get() * 1e9f / elapsed;
+	}
+
+	private void finished() {
+		synchronized (mLock) {
+			mFinished++;
+			mLock.notifyAll();
+		}
+	}
+
+	private void checkAccepting() {
+		if (mShutdown)
+			throw rejection();
+	}
+
+	private IllegalStateException rejection() {
+		return mNoEngines ? new IllegalStateException("No OCR engine could be initialized")
+				: new IllegalStateException("BatchOCR is shut down");
+	}
+
+	/** Fails every queued task with the reason, counting it as finished */
+	private void drop(Exception reason) {
+		CancellationException cancelled = new CancellationException(reason.getMessage());
+		for (LinkedBlockingDeque<Task> deque : mDeques) {
+			Task task;
+			while ((task = deque.pollFirst()) != null) {
+				mSpace.release();
+				mDropped.incrementAndGet();
+				try {
+					mSink.onError(task, cancelled);
+				} finally {
+					finished();
+				}
+			}
+		}
+	}
+
+	/** Called by a worker whose engine did not initialize */
+	private void engineFailed() {
+		if (mEngines.decrementAndGet() > 0)
+			return;
+		// no worker is left to run the queue
+		mNoEngines = true;
+		synchronized (mLock) {
+			mShutdown = true;
+		}
+		mShouldWork = false;
+		drop(rejection());
+	}
+
+	private class Worker extends Thread {
+
+		private final int mIndex;
+		private final Image mImage = new Image();
+		private final FrameEngine mFrameEngine = new FrameEngine();
+		private Preprocessor mPreprocessor;
+		private OcrEngine mEngine;
+
+		Worker(int index) {
+			super("BatchOCR-" + index);
+			mIndex = index;
+		}
+
+		@Override
+		public void run() {
+			mEngine = mEngineFactory.create();
+			if (!mEngine.init(mDataPath, mLanguage)) {
+				OCRLog.e(TAG, getName() + " unable to init OCR engine");
+				mEngine.end();
+				// the other workers steal this one's tasks
+				engineFailed();
+				return;
+			}
+
+			while (mShouldWork) {
+				Task task;
+				try {
+					task = next();
+				} catch (InterruptedException e) {
+					break;
+				}
+				if (task == null)
+					break;
+				try {
+					recognize(task);
+					mCompleted.incrementAndGet();
+				} catch (Exception e) {
+					mFailed.incrementAndGet();
+					mSink.onError(task, e);
+				} finally {
+					finished();
+				}
+			}
+			mEngine.end();
+		}
+
+		/**
+		 * Takes the oldest own task, or steals the newest of another worker.
+		 *
+		 * @return null when the queue was dropped
+		 */
+		private Task next() throws InterruptedException {
+			mTasks.acquire();
+			// a task is queued somewhere by mTasks, unless it was dropped
+			while (true) {
+				Task task = mDeques[mIndex].pollFirst();
+				if (task == null) {
+					for (int i = 1; i < mDeques.length && task == null; i++)
+						task = mDeques[(mIndex + i) % mDeques.length].pollLast();
+					if (task != null)
+						mStolen.incrementAndGet();
+				}
+				if (task != null) {
+					mSpace.release();
+					return task;
+				}
+				if (mShutdown)
+					return null;
+				Thread.yield();
+			}
+		}
+
+		private void recognize(Task task) throws IOException {
+			task.load(mImage);
+			Image image = mImage;
+			if (!mFrameEngine.crop(image.mLuma, image.mWidth, image.mHeight,
+					image.mDegrees, image.mLeft, image.mTop, image.mRight,
+					image.mBottom)) {
+				mSink.onResult(task, "", 0);
+				return;
+			}
+
+			byte[] luma = mFrameEngine.luma();
+			int width = mFrameEngine.width();
+			int height = mFrameEngine.height();
+			int xHeight = mTargetXHeight;
+			Preprocessor.Binarization binarization = mBinarization;
+			if (xHeight > 0 || binarization != Preprocessor.Binarization.NONE) {
+				if (mPreprocessor == null || !mPreprocessor.hasSettings(xHeight, binarization))
+					mPreprocessor = new Preprocessor(xHeight, binarization);
+				mPreprocessor.process(luma, width, height);
+				luma = mPreprocessor.output();
+				width = mPreprocessor.width();
+				height = mPreprocessor.height();
+			}
+
+			mEngine.clear();
+			mEngine.setImage(luma, width, height);
+			String text = mPostProcessor.process(mEngine.getText());
+			float accuracy = mEngine.meanConfidence();
+			mPixels.addAndGet(mFrameEngine.width() * mFrameEngine.height());
+			mSink.onResult(task, text, accuracy);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package com.gmail.mplackowski.cameratool;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+
+/**
+ * {@link LoadSignal} based on the battery, read from the sticky
+ * ACTION_BATTERY_CHANGED broadcast without registering a receiver.
+ *
+ * Off the charger the load rises as the charge drops below lowLevel and
+ * reaches 1 when it is empty. A battery warmer than WARM_CELSIUS adds load
+ * too, up to 1 at HOT_CELSIUS. The broadcast is read at most once per
+ * sampling period.
+ */
+public class BatteryLoadSignal implements LoadSignal {
+
+	public static final float WARM_CELSIUS = 38f;
+	public static final float HOT_CELSIUS = 45f;
+
+	private final Context mContext;
+	private final IntentFilter mFilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+	private final long mPeriodNanos;
+	private final float mLowLevel;
+	private long mLastSample;
+	private volatile float mLoad;
+
+	/** @param lowLevel charge, 0-1, below which the load starts to rise */
+	public BatteryLoadSignal(Context context, long periodMillis, float lowLevel) {
+		mContext = context.getApplicationContext();
+		mPeriodNanos = periodMillis * 1000000L;
+		mLowLevel = lowLevel;
+	}
+
+	@Override
+	public float load() {
+		long now = System.nanoTime();
+		if (now - mLastSample >= mPeriodNanos) {
+			mLastSample = now;
+			sample();
+		}
+		return mLoad;
+	}
+
+	private void sample() {
+		Intent battery = mContext.registerReceiver(null, mFilter);
+		if (battery == null)
+			return;
+
+		// 1. Charge, only while discharging
+		float load = 0;
+		int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+		int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+		boolean plugged = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+		if (!plugged && level >= 0 && scale > 0 && mLowLevel > 0) {
+			float charge = (float) level / scale;
+			load = Math.max(0f, 1f - charge / mLowLevel);
+		}
+
+		// 2. Temperature in tenths of a degree
+		int temperature = battery.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, Integer.MIN_VALUE);
+		if (temperature != Integer.MIN_VALUE) {
+			float celsius = temperature / 10f;
+			load = Math.max(load, (celsius - WARM_CELSIUS) / (HOT_CELSIUS - WARM_CELSIUS));
+		}
+		mLoad = Math.max(0f, Math.min(1f, load));
+	}
+}
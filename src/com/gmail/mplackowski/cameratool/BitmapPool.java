@@ -0,0 +1,90 @@
+package com.gmail.mplackowski.cameratool;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.graphics.Bitmap;
+
+/**
+ * Mutable ARGB_8888 bitmaps kept by size, so crops of an unchanged picker
+ * rectangle reuse the same bitmaps instead of allocating one per frame.
+ *
+ * Only the most recently used sizes are kept, bitmaps of sizes left behind
+ * while the picker is resized are dropped.
+ */
+public class BitmapPool {
+
+	/** Number of sizes kept */
+	private static final int SIZES = 2;
+
+	private final int mPerSize;
+	private final Map<Long, LinkedList<Bitmap>> mFree = new LinkedHashMap<Long, LinkedList<Bitmap>>(
+			SIZES * 2, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, LinkedList<Bitmap>> eldest) {
+			return size() > SIZES;
+		}
+	};
+
+	private final AtomicLong mHits = new AtomicLong();
+	private final AtomicLong mMisses = new AtomicLong();
+	private final AtomicLong mAllocatedBytes = new AtomicLong();
+
+	/** @param perSize bitmaps of one size kept at most */
+	public BitmapPool(int perSize) {
+		mPerSize = perSize;
+	}
+
+	/** @return pooled bitmap of the size, or a new one */
+	public Bitmap acquire(int width, int height) {
+		synchronized (this) {
+			LinkedList<Bitmap> free = mFree.get(key(width, height));
+			if (free != null && !free.isEmpty()) {
+				mHits.incrementAndGet();
+				return free.removeFirst();
+			}
+		}
+		mMisses.incrementAndGet();
+		mAllocatedBytes.addAndGet(width * height * 4);
+		return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+	}
+
+	/** Returns the bitmap, the caller must not use it anymore */
+	public synchronized void release(Bitmap bitmap) {
+		if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+				|| bitmap.getConfig() != Bitmap.Config.ARGB_8888)
+			return;
+		Long key = key(bitmap.getWidth(), bitmap.getHeight());
+		LinkedList<Bitmap> free = mFree.get(key);
+		if (free == null) {
+			free = new LinkedList<Bitmap>();
+			mFree.put(key, free);
+		}
+		if (free.size() < mPerSize)
+			free.addLast(bitmap);
+	}
+
+	/** Drops all pooled bitmaps, e.g. when the picker size changed */
+	public synchronized void clear() {
+		mFree.clear();
+	}
+
+	public long hits() {
+		return mHits.get();
+	}
+
+	public long misses() {
+		return mMisses.get();
+	}
+
+	/** Bytes allocated for new bitmaps */
+	public long allocatedBytes() {
+		return mAllocatedBytes.get();
+	}
+
+	private static Long key(int width, int height) {
+		return Long.valueOf(((long) width << 32) | (height & 0xFFFFFFFFL));
+	}
+}
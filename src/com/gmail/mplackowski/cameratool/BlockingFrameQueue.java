@@ -0,0 +1,58 @@
+package com.gmail.mplackowski.cameratool;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * FIFO hand-off, the queue is flushed once more than maxPending frames
+ * are waiting behind the one just taken.
+ */
+public class BlockingFrameQueue implements FrameQueue {
+
+	private final BlockingQueue<PreviewFrame> mQueue;
+	private final int mMaxPending;
+	private final AtomicLong mDropped = new AtomicLong();
+	private final Recycler mRecycler;
+
+	public BlockingFrameQueue(int capacity, int maxPending, Recycler recycler) {
+		mQueue = new LinkedBlockingQueue<PreviewFrame>(capacity);
+		mMaxPending = maxPending;
+		mRecycler = recycler;
+	}
+
+	@Override
+	public void offer(PreviewFrame frame) {
+		if (!mQueue.offer(frame)) {
+			mDropped.incrementAndGet();
+			mRecycler.recycle(frame);
+		}
+	}
+
+	@Override
+	public PreviewFrame take() throws InterruptedException {
+		PreviewFrame frame = mQueue.take();
+		if (mQueue.size() > mMaxPending)
+			clear();
+		return frame;
+	}
+
+	@Override
+	public void clear() {
+		PreviewFrame frame;
+		while ((frame = mQueue.poll()) != null) {
+			mDropped.incrementAndGet();
+			mRecycler.recycle(frame);
+		}
+	}
+
+	@Override
+	public int size() {
+		return mQueue.size();
+	}
+
+	@Override
+	public long dropped() {
+		return mDropped.get();
+	}
+}
@@ -0,0 +1,260 @@
+package com.gmail.mplackowski.cameratool;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.hardware.Camera;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.view.SurfaceHolder;
+
+/**
+ * Opens, configures and releases the camera on a thread of its own, so the
+ * slow Camera calls never run on the main thread.
+ *
+ * The state moves RELEASED -> OPENING -> CONFIGURED -> PREVIEWING. The
+ * parameters are queried once after open and cached. The preview starts as
+ * soon as the camera is configured and the surface exists, in whichever
+ * order the two arrive. As the camera is opened on this thread, preview
+ * callbacks are delivered on it too.
+ */
+public class CameraController {
+
+	private static final String TAG = "CameraController";
+
+	public static enum State {
+		RELEASED, OPENING, CONFIGURED, PREVIEWING
+	};
+
+	/** Called on the camera thread */
+	interface Callback {
+		/** @return one of the supported sizes, null keeps the current one */
+		public Camera.Size choosePreviewSize(List<Camera.Size> sizes,
+				int surfaceWidth, int surfaceHeight);
+
+		/** Preview size is set, callback buffers go in before the preview starts */
+		public void onPreviewConfigured(Camera camera, Camera.Size size);
+
+		/** The camera is about to be released */
+		public void onCameraReleased();
+
+		/**
+		 * Opening the camera or starting the preview failed.
+		 *
+		 * @param error ERROR_CAMERA_OPEN or ERROR_PREVIEW of CameraInterface
+		 */
+		public void onCameraError(int error, String message);
+	}
+
+	private final Callback mCallback;
+	private final Camera.PreviewCallback mPreviewCallback;
+	private final HandlerThread mThread;
+	private final Handler mHandler;
+	private volatile State mState = State.RELEASED;
+
+	// camera thread only
+	private Camera mCamera;
+	private Camera.Parameters mParameters;
+	private List<Camera.Size> mPreviewSizes;
+	private SurfaceHolder mSurface;
+	private int mSurfaceWidth;
+	private int mSurfaceHeight;
+
+	public CameraController(Callback callback, Camera.PreviewCallback previewCallback) {
+		mCallback = callback;
+		mPreviewCallback = previewCallback;
+		mThread = new HandlerThread("CameraThread");
+		mThread.start();
+		mHandler = new Handler(mThread.getLooper());
+	}
+
+	public State state() {
+		return mState;
+	}
+
+	/** Opens the camera, returns immediately. A failure goes to {@link Callback#onCameraError(int, String)} */
+	public void open(final int cameraId, final int degrees) {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				openCamera(cameraId, degrees);
+			}
+		});
+	}
+
+	/** Hands over the surface of the preview, it is hooked up once the camera is configured */
+	public void setSurface(final SurfaceHolder holder, final int width, final int height) {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				mSurface = holder;
+				mSurfaceWidth = width;
+				mSurfaceHeight = height;
+				startPreviewIfReady();
+			}
+		});
+	}
+
+	/**
+	 * Rotates the preview, the preview is restarted if running as older
+	 * devices can not rotate it while it runs.
+	 */
+	public void setDisplayOrientation(final int degrees) {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (mCamera == null)
+					return;
+				if (mState == State.PREVIEWING) {
+					mCamera.stopPreview();
+					mState = State.CONFIGURED;
+				}
+				try {
+					mCamera.setDisplayOrientation(degrees);
+				} catch (RuntimeException e) {
+					OCRLog.e(TAG, "Unable to rotate the preview " + e);
+				}
+				startPreviewIfReady();
+			}
+		});
+	}
+
+	/**
+	 * Hands a preview buffer to the camera on the camera thread, callable
+	 * from any thread. The buffer is dropped if the camera has been released
+	 * meanwhile, the buffers it held are forgotten with it.
+	 */
+	public void addCallbackBuffer(final byte[] buffer) {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (mCamera != null)
+					mCamera.addCallbackBuffer(buffer);
+			}
+		});
+	}
+
+	/** Restarts the preview with a newly chosen preview size */
+	public void reconfigure() {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (mState != State.PREVIEWING)
+					return;
+				mCamera.stopPreview();
+				mState = State.CONFIGURED;
+				startPreviewIfReady();
+			}
+		});
+	}
+
+	/**
+	 * Stops the preview and releases the camera. Waits for it, since the
+	 * surface may go away once the caller returns.
+	 *
+	 * @return false if the camera thread did not finish in time
+	 */
+	public boolean release(long timeoutMillis) {
+		if (Looper.myLooper() == mThread.getLooper()) {
+			mSurface = null;
+			releaseCamera();
+			return true;
+		}
+		final CountDownLatch released = new CountDownLatch(1);
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				mSurface = null;
+				releaseCamera();
+				released.countDown();
+			}
+		});
+		try {
+			return released.await(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/** Releases the camera and ends the thread, the controller can not be used afterwards */
+	public void quit(long timeoutMillis) {
+		release(timeoutMillis);
+		mThread.quit();
+	}
+
+	private void openCamera(int cameraId, int degrees) {
+		releaseCamera();
+		mState = State.OPENING;
+		long start = System.nanoTime();
+		try {
+			Camera camera = Camera.open(cameraId);
+			if (camera == null)
+				throw new RuntimeException("No camera " + cameraId);
+			mCamera = camera;
+			mParameters = camera.getParameters();
+			mPreviewSizes = mParameters.getSupportedPreviewSizes();
+			camera.setDisplayOrientation(degrees);
+			camera.setPreviewCallbackWithBuffer(mPreviewCallback);
+		} catch (RuntimeException e) {
+			OCRLog.e(TAG, "failed to open Camera " + e);
+			if (mCamera != null)
+				mCamera.release();
+			mCamera = null;
+			mState = State.RELEASED;
+			mCallback.onCameraError(CameraInterface.ERROR_CAMERA_OPEN,
+					"Unable to open camera " + cameraId + ": " + e.getMessage());
+			return;
+		}
+		mState = State.CONFIGURED;
+		if (OCRLog.D) OCRLog.d(TAG, "Camera " + cameraId + " opened in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+		startPreviewIfReady();
+	}
+
+	private void startPreviewIfReady() {
+		if (mState != State.CONFIGURED || mSurface == null)
+			return;
+		try {
+			Camera.Size size = mCallback.choosePreviewSize(mPreviewSizes,
+					mSurfaceWidth, mSurfaceHeight);
+			if (size != null) {
+				mParameters.setPreviewSize(size.width, size.height);
+				mCamera.setParameters(mParameters);
+			} else {
+				size = mParameters.getPreviewSize();
+			}
+			mCamera.setPreviewDisplay(mSurface);
+			mCallback.onPreviewConfigured(mCamera, size);
+			mCamera.startPreview();
+			mState = State.PREVIEWING;
+			if (OCRLog.D) OCRLog.d(TAG, "Previewing " + size.width + "x" + size.height);
+		} catch (IOException e) {
+			previewFailed(e);
+		} catch (RuntimeException e) {
+			previewFailed(e);
+		}
+	}
+
+	private void previewFailed(Exception e) {
+		OCRLog.e(TAG, "Unable to start the preview " + e);
+		mCallback.onCameraError(CameraInterface.ERROR_PREVIEW,
+				"Unable to start the preview: " + e.getMessage());
+	}
+
+	private void releaseCamera() {
+		Camera camera = mCamera;
+		if (camera == null)
+			return;
+		mCallback.onCameraReleased();
+		camera.stopPreview();
+		camera.setPreviewCallbackWithBuffer(null);
+		camera.release();
+		mCamera = null;
+		mParameters = null;
+		mState = State.RELEASED;
+	}
+}
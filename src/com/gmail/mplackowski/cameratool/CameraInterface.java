@@ -11,18 +11,74 @@ public interface CameraInterface {
 			.getExternalStorageDirectory().toString() + "/PreviewOCR/";
 	public static final String LANG = "eng";
 	public static final int OCR_QUEUE_SIZE = 3;
+	public static final int PREVIEW_BUFFER_COUNT = 3;
+	public static final int OCR_WORKER_COUNT = 1;
+	public static final float CHANGE_THRESHOLD = 4f;
+	public static final float SHARPNESS_RATIO = 0.5f;
+	public static final int FUSION_FRAMES = 5;
+	public static final float OCR_FPS = 5f;
+	public static final int ARCHIVE_QUEUE_SIZE = 2;
+	/** Preview frames that can wait for the frame recorder */
+	public static final int RECORD_QUEUE_SIZE = 4;
+	/** Time the main thread waits for the camera thread to release the camera */
+	public static final long CAMERA_RELEASE_TIMEOUT = 2000;
+	public static final int CROP_BITMAPS = 3;
+	public static final int TEXT_EDGE_THRESHOLD = 24;
+	public static final float TEXT_ROW_DENSITY = 0.05f;
+	public static final int TARGET_X_HEIGHT = 24;
+	/** Height of text regions in crop pixels the preview size is chosen for */
+	public static final int MIN_TEXT_HEIGHT = 48;
+	/** Change of the picker height, as a share, that makes the preview size be chosen again */
+	public static final float RESOLUTION_CHANGE = 0.25f;
+	/** Time the picker has to stay put before the preview size is chosen again */
+	public static final long RESOLUTION_DELAY = 500;
 	
 	public static final int DEGREE_0 = 0;
 	public static final int DEGREE_90 = 90;
 	public static final int DEGREE_180 = 180;
 	public static final int DEGREE_270 = 270;
 
+	/** OCR engines could not be initialized, e.g. missing language data */
+	public static final int ERROR_OCR_ENGINE = 1;
+	/** The camera could not be opened, e.g. another app holds it */
+	public static final int ERROR_CAMERA_OPEN = 2;
+	/** The camera is open but the preview could not be started */
+	public static final int ERROR_PREVIEW = 3;
+
 	interface OCRListener {
 		public void onTextRecognized(String text, float accuracy);
 	}
 	
+	/**
+	 * OCRListener that gets the whole result instead, onTextRecognized is
+	 * not called for it.
+	 */
+	interface OCRResultListener extends OCRListener {
+		/** The result is recycled after the call, see {@link OCRResult#copy()} */
+		public void onResult(OCRResult result);
+	}
+	
 	interface CropListener {
+		/**
+		 * Called on an OCR worker, possibly on several at once and out of
+		 * order. The bitmap is reused once CROP_BITMAPS - 1 newer crops have
+		 * been delivered, copy it before handing it to another thread, e.g.
+		 * to show it.
+		 */
 		public void onCropUpdate(Bitmap image);
 	}
+	
+	interface MetricsListener {
+		public void onMetrics(PipelineStats stats);
+	}
+	
+	interface ErrorListener {
+		/**
+		 * Called on the main thread.
+		 *
+		 * @param error one of the ERROR_ constants
+		 */
+		public void onError(int error, String message);
+	}
 }
 
@@ -2,22 +2,16 @@ package com.gmail.mplackowski.cameratool;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-
-import com.googlecode.tesseract.android.TessBaseAPI;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import android.app.Activity;
 import android.content.ContentProvider.PipeDataWriter;
 import android.content.Context;
 import android.content.pm.PackageManager;
-import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
 import android.graphics.BitmapFactory;
@@ -28,10 +22,8 @@ import android.graphics.YuvImage;
 import android.hardware.Camera;
 import android.hardware.Camera.PictureCallback;
 import android.hardware.Camera.PreviewCallback;
-import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
-import android.util.Log;
 import android.view.OrientationEventListener;
 import android.view.Surface;
 import android.view.SurfaceHolder;
@@ -48,36 +40,92 @@ public class CameraTool implements PreviewCallback, PictureCallback, RectanglePi
 	public static enum CameraSource {FRONT, BACK};
 	private CameraSource mSource;
 	
+	public static enum QueuePolicy {LATEST_FRAME, BLOCKING_QUEUE};
+	private QueuePolicy mQueuePolicy;
+	
 	private Activity mActivity;
 	private int mDegrees;
 	
-	private Camera mCamera;
-	private Camera.Size mSize;
+	private volatile Camera mCamera;
+	private CameraController mCameraController;
+	private volatile Camera.Size mSize;
+	private volatile List<Camera.Size> mPreviewSizes;
+	private volatile ResolutionPolicy mResolutionPolicy;
+	/** Picker height share the preview size was last chosen for */
+	private volatile float mResolutionCrop;
 	private int mCameraCount;
 	private int mCameraID;
 
-	private Bitmap mPreviewBitmap;
-	
+	private static final int MSG_RESULT = 1;
+	/** Frames whose capture info is kept until their result arrives */
+	private static final int FRAME_INFO_SIZE = 16;
+
 	private Handler mHandler;
-	private Thread mOCRWorker;
-	private boolean mOCRShouldWork;
+	private final AtomicReference<OCRResult> mPendingResult = new AtomicReference<OCRResult>();
+	private final Object mFrameInfoLock = new Object();
+	private final long[] mFrameInfoSequence = new long[FRAME_INFO_SIZE];
+	private final long[] mFrameInfoTime = new long[FRAME_INFO_SIZE];
+	private final int[] mFrameInfoRect = new int[FRAME_INFO_SIZE * 4];
+	private volatile OCRPipeline mPipeline;
+	private OcrEngine.Factory mEngineFactory;
+	private EngineHolder mEngines;
+	private AssetInstaller mInstaller;
+	private String mLanguage;
+	private int mWorkerCount;
+	private float mChangeThreshold;
+	private float mSharpnessRatio;
+	private int mFusionFrames;
+	private boolean mTextRegions;
+	private int mTargetXHeight;
+	private Preprocessor.Binarization mBinarization;
+	private TextPostProcessor mPostProcessor = TextPostProcessor.alphanumeric();
+	private RateController.Policy mRatePolicy;
+	private float mTargetFps;
+	private LoadSignal mLoadSignal;
+	private long mFrameSequence;
+	/** Counts every preview frame, preview thread only */
+	private long mCaptureSequence;
 	private CameraInterface.OCRListener mOCRListener;
 	private CameraInterface.CropListener mCropListener;
-	private BlockingQueue<byte[]> mOCRQueue;
+	private CameraInterface.MetricsListener mMetricsListener;
+	private CameraInterface.ErrorListener mErrorListener;
+	private long mMetricsPeriod;
+	private FrameBufferPool mBufferPool;
+	private final ThreadLocal<int[]> mPreviewPixels = new ThreadLocal<int[]>();
+	private static final ThreadLocal<int[]> sYuvPixels = new ThreadLocal<int[]>();
+	private final BitmapPool mBitmapPool = new BitmapPool(CROP_BITMAPS);
+	/** Bitmaps the crop listener may still use, oldest first */
+	private final Bitmap[] mDeliveredBitmaps = new Bitmap[CROP_BITMAPS - 1];
+	
+	private final Object mRegionLock = new Object();
+	private int[] mRegionBoxes = new int[0];
+	private int mRegionCount;
+	private int mRegionCropWidth;
+	private int mRegionCropHeight;
+	private final AtomicBoolean mRegionsPosted = new AtomicBoolean();
+	
+	private final FrameQueue.Recycler mRecycler = new FrameQueue.Recycler() {
+		@Override
+		public void recycle(PreviewFrame frame) {
+			recycleBuffer(frame);
+		}
+	};
 	
 	private RectanglePicker mPicker;
+	private volatile CropGeometry mCropGeometry;
 	private Preview mPreview;
 	private ViewGroup mParent;
 	
 	private boolean mShouldSavePreview;	
-	private int mPictureCounter;
 	private int mMaxPictureToSave;
-	
-	TessBaseAPI mTesseract;
+	private volatile ArchiveWriter mArchive;
+	private File mRecordFile;
+	private volatile FrameRecorder mRecorder;
 	
 	public CameraTool(Activity activity) {
 		mActivity = activity;
-		createFileLocation();
+		previewBuffers(CameraInterface.PREVIEW_BUFFER_COUNT);
+		mInstaller = new AssetInstaller(activity.getAssets(), DATA_PATH);
 		if (hasHardwareCamera(mActivity)) {
 			mCameraCount = Camera.getNumberOfCameras();
 			defaults();
@@ -86,8 +134,21 @@ public class CameraTool implements PreviewCallback, PictureCallback, RectanglePi
 	
 	private void defaults(){
 		source(CameraSource.BACK);
+		queuePolicy(QueuePolicy.LATEST_FRAME);
+		ocrWorkers(CameraInterface.OCR_WORKER_COUNT);
+		ocrEngine(TesseractEngine.FACTORY);
+		language(CameraInterface.LANG);
+		changeThreshold(CameraInterface.CHANGE_THRESHOLD);
+		sharpnessRatio(CameraInterface.SHARPNESS_RATIO);
+		fusionFrames(CameraInterface.FUSION_FRAMES);
+		textRegions(true);
+		preprocessing(CameraInterface.TARGET_X_HEIGHT, Preprocessor.Binarization.SAUVOLA);
+		ratePolicy(RateController.Policy.MAX_THROUGHPUT);
+		targetFps(CameraInterface.OCR_FPS);
+		resolutionPolicy(new ResolutionPolicy(CameraInterface.MIN_TEXT_HEIGHT,
+				(long) (1000000000 / CameraInterface.OCR_FPS)));
+		loadSignal(LoadSignal.NONE);
 		mShouldSavePreview = false;
-		mPictureCounter = 0;
 		mMaxPictureToSave = 0;
 	}
 	
@@ -98,6 +159,13 @@ public class CameraTool implements PreviewCallback, PictureCallback, RectanglePi
 		return false;
 	}
 	
+	/**
+	 * Adds the preview and opens the camera on the camera thread. Returns
+	 * before the camera is open, a failure to open it or to start the
+	 * preview reaches the {@link #errorListener(CameraInterface.ErrorListener)}.
+	 *
+	 * @return false if the device has no camera to open
+	 */
 	public boolean startPreview() {
 
 		nullCheck();
@@ -105,105 +173,307 @@ public class CameraTool implements PreviewCallback, PictureCallback, RectanglePi
 		if (hasHardwareCamera(mActivity)) {
 			mPreview = new Preview(mActivity);
 			mParent.addView(mPreview);
+			// engines load while the camera opens
+			warmUpEngines();
 
-			return safeCameraOpen();
+			if (mCameraID < 0)
+				return false;
+			mDegrees = getOrientationDegrees(mActivity, null);
+			cameraController().open(mCameraID, mDegrees);
+			return true;
 		}
 		return false;
 	}
 	
 	public boolean startOCR() {
 		
-		if(mOCRShouldWork) return false;
+		if(mPipeline != null && mPipeline.isRunning()) return false;
 
 		nullCheck();
 
-		mOCRShouldWork = true;
-		
-		mPicker = new RectanglePicker(mActivity);
-		mParent.addView(mPicker);
-
-		mOCRQueue = new LinkedBlockingQueue<byte[]>();
+		if (mPicker == null) {
+			mPicker = new RectanglePicker(mActivity);
+			mPicker.setOnResizeListener(this);
+			mParent.addView(mPicker);
+		}
 
-		mTesseract = new TessBaseAPI();
-		mTesseract.setDebug(true);
-		mTesseract.init(CameraInterface.DATA_PATH, CameraInterface.LANG);
-		
-		
 		mHandler = new Handler() {
 			@Override
 			public void handleMessage(Message msg) {
 				super.handleMessage(msg);
-				String text = msg.getData().getString(CameraInterface.OCR_TEXT);
-				float accuracy = msg.getData().getFloat(
-						CameraInterface.OCR_ACCURACY);
-				if (mOCRListener != null) {
-					mOCRListener.onTextRecognized(text, accuracy);
-				}
+				if (msg.what == MSG_RESULT)
+					deliverResult();
 			}
 		};
 
-		mOCRWorker = new Thread(new Runnable() {
+		mPipeline = new OCRPipeline(mEngineFactory, mWorkerCount,
+				createQueue(mQueuePolicy), mRecycler, new OCRPipeline.Callback() {
+
+					@Override
+					public void onFrameCropped(FrameEngine crop) {
+						ArchiveWriter archive = mArchive;
+						if (archive != null)
+							archive.submit(crop);
+						if (mCropListener != null) {
+							Bitmap bitmap = createPreviewBitmap(crop);
+							try {
+								forwardPreviewBitmap(bitmap);
+							} finally {
+								delivered(bitmap);
+							}
+						}
+					}
 
-			@Override
-			public void run() {
-				while (mOCRShouldWork) {
-					try {
-						byte[] imageData = mOCRQueue.take();
-						
-						mPreviewBitmap = getBitmapImageFromYUV(imageData, mSize.width,
-								mSize.height, mDegrees, mPicker.rect(mSize, mDegrees));
-						
-						if(mOCRQueue.size()>CameraInterface.OCR_QUEUE_SIZE)
-							mOCRQueue.clear();
-						
-						forwardPreviewBitmap(mPreviewBitmap);
-						
-						mTesseract.clear();
-						mTesseract.setImage(mPreviewBitmap);
-						
-						String recognizedText = mTesseract.getUTF8Text();
-						float accuracy = mTesseract.meanConfidence();
-						recognizedText = recognizedText.replaceAll("[^a-zA-Z0-9]+", " ");
-						
-						updateOCR(recognizedText,accuracy);
-
-					} catch (InterruptedException e) {
-						Log.d(TAG, "mOCRThread  InterruptedException "+e);
+					@Override
+					public void onTextRegions(FrameEngine crop, int[] boxes, int count) {
+						postTextRegions(crop, boxes, count);
 					}
-				}
-				mTesseract.end();
+
+					@Override
+					public void onTextRecognized(long sequence, String text,
+							float accuracy) {
+						updateOCR(sequence, text, accuracy);
+					}
+				});
+		if (mChangeThreshold > 0)
+			mPipeline.changeDetector(new ChangeDetector(mChangeThreshold));
+		if (mSharpnessRatio > 0)
+			mPipeline.sharpnessFilter(new SharpnessFilter(mSharpnessRatio, 0));
+		mPipeline.resultFusion(mFusionFrames);
+		if (mTextRegions)
+			mPipeline.textRegions(CameraInterface.TEXT_EDGE_THRESHOLD,
+					CameraInterface.TEXT_ROW_DENSITY);
+		mPipeline.preprocessing(mTargetXHeight, mBinarization);
+		mPipeline.postProcessor(mPostProcessor);
+		mPipeline.rateController(new RateController(mRatePolicy, mTargetFps,
+				mWorkerCount, mLoadSignal));
+		if (mShouldSavePreview) {
+			mArchive = new ArchiveWriter(DATA_PATH, mMaxPictureToSave,
+					CameraInterface.ARCHIVE_QUEUE_SIZE);
+			mArchive.start();
+		}
+		if (mRecordFile != null) {
+			try {
+				mRecorder = new FrameRecorder(mRecordFile, CameraInterface.RECORD_QUEUE_SIZE);
+				mRecorder.start();
+			} catch (IOException e) {
+				OCRLog.e(TAG, "Unable to record frames to " + mRecordFile + " " + e);
 			}
-		});
+		}
+		mPipeline.start(warmUpEngines());
 		
-		mOCRWorker.start();
+		if (mMetricsListener != null)
+			mHandler.postDelayed(mMetricsReporter, mMetricsPeriod);
 		
 		return true;
 	}
 	
-	protected void forwardPreviewBitmap(Bitmap mPreviewBitmap2) {
+	/** Crop as a pooled bitmap, see {@link #delivered(Bitmap)} */
+	private Bitmap createPreviewBitmap(FrameEngine crop) {
+		long start = PipelineMetrics.ENABLED ? System.nanoTime() : 0;
+		int size = crop.width() * crop.height();
+		int[] pixels = mPreviewPixels.get();
+		if (pixels == null || pixels.length < size) {
+			pixels = new int[size];
+			mPreviewPixels.set(pixels);
+			if (PipelineMetrics.ENABLED)
+				mPipeline.metrics().allocated(size * 4L);
+		}
+		crop.toArgb(pixels);
+		Bitmap bitmap = mBitmapPool.acquire(crop.width(), crop.height());
+		bitmap.setPixels(pixels, 0, crop.width(), 0, 0, crop.width(), crop.height());
+		if (PipelineMetrics.ENABLED)
+			mPipeline.metrics().record(PipelineMetrics.Stage.CONVERSION,
+					System.nanoTime() - start);
+		return bitmap;
+	}
+
+	/**
+	 * Called once the listener returned. The bitmap goes back to the pool
+	 * after CROP_BITMAPS - 1 newer ones were delivered, so a bitmap is never
+	 * rewritten while a listener on another worker still has it.
+	 */
+	private void delivered(Bitmap bitmap) {
+		synchronized (mDeliveredBitmaps) {
+			int last = mDeliveredBitmaps.length - 1;
+			mBitmapPool.release(mDeliveredBitmaps[0]);
+			System.arraycopy(mDeliveredBitmaps, 1, mDeliveredBitmaps, 0, last);
+			mDeliveredBitmaps[last] = bitmap;
+		}
+	}
+
+	/** Hands the regions over to the picker overlay, at most one update is pending */
+	private void postTextRegions(FrameEngine crop, int[] boxes, int count) {
+		ResolutionPolicy policy = mResolutionPolicy;
+		if (policy != null && count > 0) {
+			int height = 0;
+			for (int i = 0; i < count; i++)
+				height += boxes[i * TextRegionDetector.BOX + 3]
+						- boxes[i * TextRegionDetector.BOX + 1];
+			policy.recordTextHeight(height / count, crop.height());
+		}
+		synchronized (mRegionLock) {
+			if (mRegionBoxes.length < count * TextRegionDetector.BOX)
+				mRegionBoxes = new int[count * TextRegionDetector.BOX];
+			System.arraycopy(boxes, 0, mRegionBoxes, 0, count * TextRegionDetector.BOX);
+			mRegionCount = count;
+			mRegionCropWidth = crop.width();
+			mRegionCropHeight = crop.height();
+		}
+		if (mRegionsPosted.compareAndSet(false, true))
+			mHandler.post(mRegionUpdater);
+	}
+
+	private final Runnable mRegionUpdater = new Runnable() {
+		@Override
+		public void run() {
+			mRegionsPosted.set(false);
+			RectanglePicker picker = mPicker;
+			if (picker == null)
+				return;
+			synchronized (mRegionLock) {
+				picker.setTextRegions(mRegionBoxes, mRegionCount,
+						mRegionCropWidth, mRegionCropHeight);
+			}
+		}
+	};
+
+	protected void forwardPreviewBitmap(Bitmap previewBitmap) {
 		if(mCropListener!=null)
-			mCropListener.onCropUpdate(mPreviewBitmap);
-		
-		if(mShouldSavePreview)
-			saveBitmap(mPreviewBitmap);
+			mCropListener.onCropUpdate(previewBitmap);
+	}
+
+	/**
+	 * Hands the result to the main thread. A result the main thread has not
+	 * taken yet is replaced, so at most one message is pending.
+	 */
+	private void updateOCR(long sequence, String text, float accuracy){
+		OCRResult result = OCRResult.obtain();
+		synchronized (mFrameInfoLock) {
+			int i = (int) (sequence % FRAME_INFO_SIZE);
+			int r = i * 4;
+			if (mFrameInfoSequence[i] == sequence)
+				result.set(text, accuracy, sequence, mFrameInfoTime[i],
+						System.nanoTime(), mFrameInfoRect[r], mFrameInfoRect[r + 1],
+						mFrameInfoRect[r + 2], mFrameInfoRect[r + 3]);
+			else
+				result.set(text, accuracy, sequence, 0, System.nanoTime(), 0, 0, 0, 0);
+		}
+
+		OCRResult replaced = mPendingResult.getAndSet(result);
+		if (replaced != null)
+			replaced.recycle();
+		else
+			mHandler.sendMessage(Message.obtain(mHandler, MSG_RESULT));
+	}
+
+	private void deliverResult() {
+		OCRResult result = mPendingResult.getAndSet(null);
+		if (result == null)
+			return;
+		CameraInterface.OCRListener listener = mOCRListener;
+		if (listener instanceof CameraInterface.OCRResultListener)
+			((CameraInterface.OCRResultListener) listener).onResult(result);
+		else if (listener != null)
+			listener.onTextRecognized(result.getText(), result.getAccuracy());
+		result.recycle();
+	}
+
+	/** Remembers capture time and crop of a frame for its result */
+	private void putFrameInfo(long sequence, long time, CropGeometry geometry) {
+		synchronized (mFrameInfoLock) {
+			int i = (int) (sequence % FRAME_INFO_SIZE);
+			int r = i * 4;
+			mFrameInfoSequence[i] = sequence;
+			mFrameInfoTime[i] = time;
+			mFrameInfoRect[r] = geometry.left();
+			mFrameInfoRect[r + 1] = geometry.top();
+			mFrameInfoRect[r + 2] = geometry.right();
+			mFrameInfoRect[r + 3] = geometry.bottom();
+		}
+	}
+
+	/**
+	 * Engines shared by every pipeline started, created and initialized in
+	 * the background on first use, when the engine settings changed or to
+	 * try again after a failure.
+	 */
+	private EngineHolder warmUpEngines() {
+		if (mEngines == null || mEngines.error() != null || !mEngines.hasSettings(
+				mEngineFactory, CameraInterface.DATA_PATH, mLanguage)) {
+			if (mEngines != null)
+				mEngines.shutdown();
+			// engines wait for the language data, the preview does not
+			mEngines = new EngineHolder(mEngineFactory, CameraInterface.DATA_PATH,
+					mLanguage, mInstaller.install(mLanguage)).listener(mEngineListener);
+		}
+		mEngines.warmUp(mWorkerCount);
+		return mEngines;
+	}
+
+	private final EngineHolder.Listener mEngineListener = new EngineHolder.Listener() {
+		@Override
+		public void onEngineError(String error) {
+			reportError(CameraInterface.ERROR_OCR_ENGINE, error);
+		}
+	};
+
+	/** Hands the error to the error listener on the main thread */
+	private void reportError(final int error, final String message) {
+		final CameraInterface.ErrorListener listener = mErrorListener;
+		if (listener == null || mActivity == null)
+			return;
+		mActivity.runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				listener.onError(error, message);
+			}
+		});
+	}
+
+	/** Stops delivering frames to OCR, the workers and engines stay ready */
+	public void pauseOCR() {
+		if (mPipeline != null)
+			mPipeline.pause();
 	}
 
-	private void updateOCR(String text, float accuracy){
-		Message m = new Message();
-		Bundle b = new Bundle();
-		b.putString(CameraInterface.OCR_TEXT, text);
-		b.putFloat(CameraInterface.OCR_ACCURACY, accuracy);
-		m.setData(b);
-		mHandler.sendMessage(m);
+	public void resumeOCR() {
+		if (mPipeline != null)
+			mPipeline.resume();
 	}
 
+	/**
+	 * Stops OCR. Waiting workers are interrupted, the engines stay
+	 * initialized for the next startOCR until {@link #release()}.
+	 */
 	public void stopOCR() {
-		mOCRShouldWork = false;
+		if (mPipeline != null)
+			mPipeline.stop();
+		if (mArchive != null) {
+			mArchive.shutdown();
+			mArchive = null;
+		}
+		closeRecorder();
+		if (mHandler != null)
+			mHandler.removeCallbacks(mMetricsReporter);
 	}
 	public void stop() {
 		stopOCR();
 		releaseCameraAndPreview();
 	}
+
+	/** Stops everything, ends the OCR engines and the camera thread, call when done with the tool */
+	public void release() {
+		stop();
+		if (mCameraController != null) {
+			mCameraController.quit(CameraInterface.CAMERA_RELEASE_TIMEOUT);
+			mCameraController = null;
+		}
+		if (mEngines != null) {
+			mEngines.shutdown();
+			mEngines = null;
+		}
+	}
 	
 	private void nullCheck(){
 		if(mActivity == null)
@@ -212,37 +482,106 @@ public class CameraTool implements PreviewCallback, PictureCallback, RectanglePi
 			throw new RuntimeException("Container View is NULL!");
 	}
 
-	public CameraTool setPreviewCallback() {
-		mCamera.setPreviewCallback(this);
-		return this;
+	/** Sizes the buffer pool for the current preview size and hands it to the camera */
+	private void allocatePreviewBuffers() {
+		mBufferPool.configure(FrameBufferPool.nv21Size(mSize.width, mSize.height));
+		for (int i = 0; i < mBufferPool.capacity(); i++)
+			feedCamera();
 	}
 
-	private boolean safeCameraOpen() {
-		boolean qOpened = false;
+	/**
+	 * Hands a pooled buffer to the camera. Called by the workers too, so
+	 * the camera only gets it on the camera thread.
+	 */
+	private void feedCamera() {
+		CameraController controller = mCameraController;
+		if (mCamera == null || controller == null)
+			return;
+		controller.addCallbackBuffer(mBufferPool.acquire().data());
+	}
 
-		try {
-			releaseCameraAndPreview();
-			mCamera = Camera.open(mCameraID);
+	/** Returns a preview buffer to the pool and the pool to the camera */
+	private void recycleBuffer(PreviewFrame frame) {
+		mBufferPool.release(frame);
+		feedCamera();
+	}
 
-			setPreviewCallback();
-			qOpened = (mCamera != null);
-		} catch (Exception e) {
-			Log.d(TAG, "failed to open Camera");
-			mCamera = null;
-			e.printStackTrace();
+	private FrameQueue createQueue(QueuePolicy policy) {
+		switch (policy) {
+		case BLOCKING_QUEUE:
+			return new BlockingFrameQueue(mBufferPool.capacity(),
+					CameraInterface.OCR_QUEUE_SIZE, mRecycler);
+		case LATEST_FRAME:
+		default:
+			return new LatestFrameQueue(mRecycler);
 		}
+	}
 
-		return qOpened;
+	/** Camera thread, created on first use */
+	private CameraController cameraController() {
+		if (mCameraController == null)
+			mCameraController = new CameraController(mCameraCallback, this);
+		return mCameraController;
 	}
 
-	private void releaseCameraAndPreview() {
-		if (mCamera != null) {
-			mCamera.stopPreview();
-			mCamera.setPreviewCallback(null);
-		    mPreview.getHolder().removeCallback(mPreview);
-			mCamera.release();
+	private final CameraController.Callback mCameraCallback = new CameraController.Callback() {
+
+		@Override
+		public Camera.Size choosePreviewSize(List<Camera.Size> sizes,
+				int surfaceWidth, int surfaceHeight) {
+			mPreviewSizes = sizes;
+			ResolutionPolicy policy = mResolutionPolicy;
+			CropGeometry geometry = mCropGeometry;
+			if (policy == null || geometry == null || geometry.isEmpty())
+				return getOptimalPreviewSize(sizes, surfaceWidth, surfaceHeight);
+
+			// cost of the current size, before it changes
+			OCRPipeline pipeline = mPipeline;
+			if (pipeline != null && pipeline.isRunning())
+				policy.recordCost(pipeline.rateController().latencyNanos(),
+						geometry.width() * geometry.height());
+			mResolutionCrop = geometry.heightFraction();
+			return policy.choose(sizes, geometry.degrees(), geometry.widthFraction(),
+					geometry.heightFraction(), surfaceWidth, surfaceHeight);
+		}
+
+		@Override
+		public void onPreviewConfigured(Camera camera, Camera.Size size) {
+			mCamera = camera;
+			mSize = size;
+			allocatePreviewBuffers();
+			mActivity.runOnUiThread(mGeometryUpdater);
+		}
+
+		@Override
+		public void onCameraReleased() {
 			mCamera = null;
+			mBufferPool.clear();
+		}
+
+		@Override
+		public void onCameraError(int error, String message) {
+			reportError(error, message);
+		}
+	};
+
+	private final Runnable mGeometryUpdater = new Runnable() {
+		@Override
+		public void run() {
+			updateCropGeometry();
 		}
+	};
+
+	/** Releases the camera on its thread, waits so the surface can go away afterwards */
+	private void releaseCameraAndPreview() {
+		if (mPicker != null)
+			mPicker.removeCallbacks(mResolutionCheck);
+		if (mCameraController == null)
+			return;
+		if (!mCameraController.release(CameraInterface.CAMERA_RELEASE_TIMEOUT))
+			OCRLog.e(TAG, "Camera release timed out");
+		if (mPreview != null)
+			mPreview.getHolder().removeCallback(mPreview);
 	}
 
 	private int getCameraID(CameraSource type) {
@@ -279,7 +618,7 @@ public class CameraTool implements PreviewCallback, PictureCallback, RectanglePi
 		int targetWidth = w;
 
 		for (Camera.Size size : sizes) {
-			Log.d(TAG,"getOptimalPreviewSize h:"+size.height+" w:"+size.width);
+			if (OCRLog.D) OCRLog.d(TAG,"getOptimalPreviewSize h:"+size.height+" w:"+size.width);
 			double ratio = (double) size.width / size.height;
 			if (Math.abs(ratio - targetRatio) > ASPECT_TOLERANCE)
 				continue;
@@ -341,14 +680,19 @@ public class CameraTool implements PreviewCallback, PictureCallback, RectanglePi
 		} else { // back-facing
 			result = (info.orientation - degrees + 360) % 360;
 		}
-		Log.d(TAG,"getOrientationDegrees "+result);
+		if (OCRLog.D) OCRLog.d(TAG,"getOrientationDegrees "+result);
 		return result;
 	}
 
-	public void setCameraDisplayOrientation(Activity activity, Camera camera) {
-
-		mDegrees = getOrientationDegrees(activity, camera);
-		camera.setDisplayOrientation(mDegrees);
+	/**
+	 * Rotates the preview to the current display rotation, the camera is
+	 * rotated on the camera thread. Call on the main thread.
+	 */
+	public void setCameraDisplayOrientation(Activity activity) {
+		mDegrees = getOrientationDegrees(activity, null);
+		if (mCameraController != null)
+			mCameraController.setDisplayOrientation(mDegrees);
+		updateCropGeometry();
 	}
 
 	class Preview extends SurfaceView implements SurfaceHolder.Callback {
@@ -365,7 +709,7 @@ public class CameraTool implements PreviewCallback, PictureCallback, RectanglePi
 		public void surfaceChanged(SurfaceHolder holder, int format, int width,
 				int height) {
 			
-			Log.d(TAG,"surfaceChanged");
+			if (OCRLog.D) OCRLog.d(TAG,"surfaceChanged");
 //			if (mHolder.getSurface() == null)
 //				return;
 
@@ -380,43 +724,79 @@ public class CameraTool implements PreviewCallback, PictureCallback, RectanglePi
 
 		@Override
 		public void surfaceCreated(SurfaceHolder holder) {
-			Log.d(TAG,"surfaceCreated");
-			safeStartPreview();
-
+			if (OCRLog.D) OCRLog.d(TAG,"surfaceCreated");
+			// the preview starts on the camera thread once the camera is open
+			cameraController().setSurface(holder, getWidth(), getHeight());
 		}
 		
 		@Override
 		public void surfaceDestroyed(SurfaceHolder holder) {
 			stop();
 		}
-		
-		private void safeStartPreview(){
-			
-			try {
-				mCamera.setPreviewDisplay(mHolder);
-				fitPreview();
-				setCameraDisplayOrientation(mActivity, mCamera);
-				mCamera.startPreview();
-
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
 
 	}
 
 	@Override
 	public void onPreviewFrame(byte[] data, Camera camera) {
-		// TODO Auto-generated method stub
-		Log.d(TAG, "onPreviewFrame ");
-		if(mOCRQueue!=null && data != null){
-			boolean addedToQueue = mOCRQueue.offer(data);
-			Log.d(TAG,"onPreviewFrame addedToQueue "+addedToQueue+" size "+mOCRQueue.size());
-			
+		if (data == null)
+			return;
+		OCRPipeline pipeline = mPipeline;
+		long now = System.nanoTime();
+		long capture = mCaptureSequence++;
+		FrameRecorder recorder = mRecorder;
+		if (recorder != null)
+			recordFrame(recorder, data, capture, now);
+		if (pipeline != null && !pipeline.rateController().accept(now)) {
+			// skipped at the source, straight back to the camera, this is
+			// the camera thread
+			OCRLog.trace(OCRLog.EVENT_PREVIEW_SKIPPED, now, 0);
+			camera.addCallbackBuffer(data);
+			return;
 		}
+		PreviewFrame frame = mBufferPool.frameFor(data);
+		if (frame == null)
+			return;
+		if (pipeline == null || !pipeline.isRunning() || pipeline.isPaused()) {
+			recycleBuffer(frame);
+			return;
+		}
+		CropGeometry geometry = mCropGeometry;
+		// the geometry follows a preview size change on the main thread
+		if (geometry == null || FrameBufferPool.nv21Size(geometry.frameWidth(),
+				geometry.frameHeight()) != data.length) {
+			recycleBuffer(frame);
+			return;
+		}
+		OCRLog.trace(OCRLog.EVENT_PREVIEW_FRAME, mFrameSequence, now);
+		putFrameInfo(mFrameSequence, now, geometry);
+		frame.stamp(mFrameSequence++, now);
+		frame.setGeometry(geometry);
+		pipeline.submit(frame);
 
 	}
 
+	/**
+	 * Records every preview frame, before the rate controller. The frame is
+	 * copied and written on the recorder thread.
+	 *
+	 * @param capture index of the frame among all preview frames
+	 */
+	private void recordFrame(FrameRecorder recorder, byte[] data, long capture, long now) {
+		CropGeometry geometry = mCropGeometry;
+		if (geometry == null || FrameBufferPool.nv21Size(
+				geometry.frameWidth(), geometry.frameHeight()) != data.length)
+			return;
+		recorder.record(data, geometry, capture, now);
+	}
+
+	/** The recorder writes the frames still waiting and closes the file */
+	private void closeRecorder() {
+		FrameRecorder recorder = mRecorder;
+		mRecorder = null;
+		if (recorder != null)
+			recorder.close();
+	}
+
 	@Override
 	public void onPictureTaken(byte[] data, Camera camera) {
 		//Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
@@ -436,15 +816,56 @@ public class CameraTool implements PreviewCallback, PictureCallback, RectanglePi
 
 	public static Bitmap getBitmapImageFromYUV(byte[] data, int width,
 			int height, int degree, Rect rect) {
-		Bitmap bitmap = getBitmapImageFromYUV(data, width, height, rect);
-		return rotateBitmap(bitmap, degree,rect);
+		return getBitmapImageFromYUV(data, width, height, degree, rect, null);
+	}
+
+	/**
+	 * Color bitmap of the rect, given in rotated space, of the NV21 frame
+	 * rotated by degree. For right angles only the pixels of the rect are
+	 * converted, straight from the frame.
+	 * 
+	 * @param pool supplies the bitmap, null to allocate a new one
+	 */
+	public static Bitmap getBitmapImageFromYUV(byte[] data, int width,
+			int height, int degree, Rect rect, BitmapPool pool) {
+		if (degree % 90 != 0) {
+			Bitmap bitmap = getBitmapImageFromYUV(data, width, height, rect);
+			return rotateBitmap(bitmap, degree, rect);
+		}
+		degree = (degree % 360 + 360) % 360;
 
+		int size = rect.width() * rect.height();
+		int[] pixels = sYuvPixels.get();
+		if (pixels == null || pixels.length < size) {
+			pixels = new int[size];
+			sYuvPixels.set(pixels);
+		}
+		FrameEngine.cropArgb(data, width, height, degree, rect.left, rect.top,
+				rect.right, rect.bottom, pixels);
+
+		Bitmap bitmap = pool != null ? pool.acquire(rect.width(), rect.height())
+				: Bitmap.createBitmap(rect.width(), rect.height(), Bitmap.Config.ARGB_8888);
+		bitmap.setPixels(pixels, 0, rect.width(), 0, 0, rect.width(), rect.height());
+		return bitmap;
 	}
 
+	/**
+	 * Crop of the source after rotating it by angle, rect is in rotated
+	 * space. For right angles the rect is mapped back to the source and only
+	 * that part is rotated.
+	 */
 	public static Bitmap rotateBitmap(Bitmap source, float angle, Rect rect) {
 		Matrix matrix = new Matrix();
 		matrix.postRotate(angle);
 
+		if (angle % 90 == 0) {
+			int[] sensor = CropGeometry.toSensor(source.getWidth(), source.getHeight(),
+					((int) angle % 360 + 360) % 360, rect.left, rect.top, rect.right,
+					rect.bottom);
+			return Bitmap.createBitmap(source, sensor[0], sensor[1],
+					sensor[2] - sensor[0], sensor[3] - sensor[1], matrix, true);
+		}
+
 		source = Bitmap.createBitmap(source, 0, 0, source.getWidth(),
 				source.getHeight(), matrix, true);
 		source = Bitmap.createBitmap(source, rect.left, rect.top, rect.width(), rect.height());
@@ -466,83 +887,80 @@ public class CameraTool implements PreviewCallback, PictureCallback, RectanglePi
 		Bitmap bmp = BitmapFactory.decodeByteArray(jdata, 0, jdata.length,
 				bitmapFatoryOptions);
 		
-		Log.d(TAG,"getBitmapImageFromYUV w:"+bmp.getWidth()+" h:"+bmp.getHeight());
+		if (OCRLog.D) OCRLog.d(TAG,"getBitmapImageFromYUV w:"+bmp.getWidth()+" h:"+bmp.getHeight());
 	
 		
 		return bmp;
 	}
 
+	/** Chooses the preview size again and restarts the preview with it */
 	public void fitPreview() 
 	{
-			mSize = getOptimalPreviewSize(mCamera.getParameters()
-					.getSupportedPreviewSizes(), mPreview.getWidth(),
-					mPreview.getHeight());
-
-			Camera.Parameters p = mCamera.getParameters();
-			p.setPreviewSize(mSize.width, mSize.height);
-
-			mCamera.setParameters(p);
+		if (mCameraController != null)
+			mCameraController.reconfigure();
 	}
 	
 
 	@Override
 	public void onPickerResized(Rect rect) {
-		Log.d(TAG, "onPickerResized  "+rect);
-		
+		if (OCRLog.D) OCRLog.d(TAG, "onPickerResized  "+rect);
+		updateCropGeometry();
 	}
-	
-	private void saveBitmap(Bitmap b){
-		if(mPictureCounter>mMaxPictureToSave)
-			mPictureCounter =0;
-		
-		String fname = "PreviewOCR-"+mPictureCounter+".jpg";
-		File file = new File (DATA_PATH, fname);
-		if (file.exists ()) file.delete (); 
-		try {
-		       FileOutputStream out = new FileOutputStream(file);
-		       b.compress(Bitmap.CompressFormat.JPEG, 90, out);
-		       out.flush();
-		       out.close();
-		       
-		       mPictureCounter++;
 
-		} catch (Exception e) {
-		       e.printStackTrace();
+	/**
+	 * Restarts the preview with the size the resolution policy picks, once
+	 * the picker height changed substantially since the size was chosen.
+	 * The new size brings new preview buffers and a new crop geometry along.
+	 */
+	private final Runnable mResolutionCheck = new Runnable() {
+		@Override
+		public void run() {
+			ResolutionPolicy policy = mResolutionPolicy;
+			CropGeometry geometry = mCropGeometry;
+			List<Camera.Size> sizes = mPreviewSizes;
+			Camera.Size current = mSize;
+			CameraController controller = mCameraController;
+			if (policy == null || geometry == null || geometry.isEmpty() || sizes == null
+					|| current == null || controller == null || mPreview == null)
+				return;
+			float crop = geometry.heightFraction();
+			if (Math.abs(crop - mResolutionCrop) < CameraInterface.RESOLUTION_CHANGE * mResolutionCrop)
+				return;
+
+			Camera.Size size = policy.choose(sizes, geometry.degrees(),
+					geometry.widthFraction(), crop, mPreview.getWidth(),
+					mPreview.getHeight());
+			mResolutionCrop = crop;
+			if (size == null || (size.width == current.width && size.height == current.height))
+				return;
+			if (OCRLog.D) OCRLog.d(TAG, "Switching preview to " + size.width + "x" + size.height);
+			controller.reconfigure();
 		}
-	}
-	
-	private void createFileLocation(){
-		
-		String[] paths = new String[] { DATA_PATH, DATA_PATH + "tessdata/" };
-		
-		for (String path : paths) 
-		{
-			File dir = new File(path);
-			if (!dir.exists()) dir.mkdirs();
+	};
+
+	/**
+	 * Publishes the crop of the picker for the current preview size, frames
+	 * take it as a whole so the workers never see a half updated picker.
+	 * Main thread only.
+	 */
+	private void updateCropGeometry() {
+		if (mPicker == null || mSize == null)
+			return;
+		CropGeometry last = mCropGeometry;
+		CropGeometry geometry = mPicker.geometry(mSize.width, mSize.height, mDegrees);
+		if (last == null || !geometry.hasSettings(last.frameWidth(), last.frameHeight(),
+				last.degrees(), last.left(), last.top(), last.right(), last.bottom())) {
+			mCropGeometry = geometry;
+			OCRPipeline pipeline = mPipeline;
+			if (pipeline != null)
+				pipeline.reset();
 		}
-		
-		if (!(new File(DATA_PATH + "tessdata/" + LANG + ".traineddata")).exists()) {
-			try {
-
-				AssetManager assetManager = mActivity.getAssets();
-				InputStream in = assetManager.open("tessdata/" + LANG + ".traineddata");
-				OutputStream out = new FileOutputStream(DATA_PATH
-						+ "tessdata/" + LANG + ".traineddata");
-
-				byte[] buf = new byte[1024];
-				int len;
-				while ((len = in.read(buf)) > 0) 
-					out.write(buf, 0, len);
-				
-				in.close();
-				out.close();
-				
-			} catch (IOException e) {
-				Log.e(TAG, "createFileLocation Was unable to copy " + LANG + " traineddata " + e.toString());
-			}
+		if (mResolutionPolicy != null) {
+			mPicker.removeCallbacks(mResolutionCheck);
+			mPicker.postDelayed(mResolutionCheck, CameraInterface.RESOLUTION_DELAY);
 		}
 	}
-
+	
 	public CameraTool cropListener(CameraInterface.CropListener listener) {
 		mCropListener = listener;
 		return this;
@@ -578,6 +996,7 @@ public class CameraTool implements PreviewCallback, PictureCallback, RectanglePi
 		return mShouldSavePreview;
 	}
 
+	/** Saves the crops on a background thread, takes effect on startOCR */
 	public CameraTool save(boolean shouldSave) {
 		this.mShouldSavePreview = shouldSave;
 		return this;
@@ -588,4 +1007,297 @@ public class CameraTool implements PreviewCallback, PictureCallback, RectanglePi
 		return this;
 	}
 
+	public File getRecordFile() {
+		return mRecordFile;
+	}
+
+	/**
+	 * Records raw preview frames with their geometry to the file for
+	 * {@link FrameReplay}, null to stop recording. Takes effect on startOCR.
+	 */
+	public CameraTool recordFrames(File file) {
+		mRecordFile = file;
+		return this;
+	}
+
+	/** Number of preview buffers in circulation between the camera and OCR */
+	public CameraTool previewBuffers(int count) {
+		mBufferPool = new FrameBufferPool(count);
+		return this;
+	}
+
+	public int getOCRWorkers() {
+		return mWorkerCount;
+	}
+
+	/**
+	 * Number of OCR workers, each one with its own Tesseract instance,
+	 * takes effect on startOCR.
+	 */
+	public CameraTool ocrWorkers(int count) {
+		if (count < 1)
+			throw new IllegalArgumentException("At least one OCR worker is needed");
+		mWorkerCount = count;
+		return this;
+	}
+
+	public OcrEngine.Factory getOcrEngine() {
+		return mEngineFactory;
+	}
+
+	/** Creates the engine of every OCR worker, Tesseract by default */
+	public CameraTool ocrEngine(OcrEngine.Factory factory) {
+		mEngineFactory = factory;
+		return this;
+	}
+
+	public String getLanguage() {
+		return mLanguage;
+	}
+
+	/**
+	 * OCR language, several joined by '+' e.g. "eng+deu". The traineddata of
+	 * each is installed from the assets in the background. Takes effect on
+	 * startPreview or startOCR.
+	 */
+	public CameraTool language(String language) {
+		mLanguage = language;
+		return this;
+	}
+
+	public float getChangeThreshold() {
+		return mChangeThreshold;
+	}
+
+	/**
+	 * Mean difference of the crop block means, in luma levels, below which
+	 * a frame is treated as unchanged and the previous result is repeated
+	 * instead of running OCR. 0 disables the check.
+	 */
+	public CameraTool changeThreshold(float threshold) {
+		mChangeThreshold = threshold;
+		return this;
+	}
+
+	public float getSharpnessRatio() {
+		return mSharpnessRatio;
+	}
+
+	/**
+	 * Frames with a focus metric below ratio times the mean of the recent
+	 * frames are considered blurred and are not recognized. 0 disables the
+	 * filter.
+	 */
+	public CameraTool sharpnessRatio(float ratio) {
+		mSharpnessRatio = ratio;
+		return this;
+	}
+
+	public int getFusionFrames() {
+		return mFusionFrames;
+	}
+
+	/**
+	 * Number of recent results voted over before a text is reported, the
+	 * listener is only called when the voted text changes. 1 reports every
+	 * result as it is.
+	 */
+	public CameraTool fusionFrames(int frames) {
+		mFusionFrames = frames;
+		return this;
+	}
+
+	public boolean isDetectingTextRegions() {
+		return mTextRegions;
+	}
+
+	/**
+	 * Recognizes only the text lines found in the crop and shows them on the
+	 * picker, instead of recognizing the whole crop. Takes effect on startOCR.
+	 */
+	public CameraTool textRegions(boolean detect) {
+		mTextRegions = detect;
+		return this;
+	}
+
+	public int getTargetXHeight() {
+		return mTargetXHeight;
+	}
+
+	public Preprocessor.Binarization getBinarization() {
+		return mBinarization;
+	}
+
+	/**
+	 * Scales crops down until the text x-height is about targetXHeight
+	 * pixels, 0 keeps the size, and binarizes them before recognition.
+	 * Takes effect on startOCR.
+	 */
+	public CameraTool preprocessing(int targetXHeight,
+			Preprocessor.Binarization binarization) {
+		mTargetXHeight = targetXHeight;
+		mBinarization = binarization;
+		return this;
+	}
+
+	public TextPostProcessor getPostProcessor() {
+		return mPostProcessor;
+	}
+
+	/**
+	 * Cleans up and validates recognized text, the default keeps letters
+	 * and digits. Takes effect on startOCR.
+	 */
+	public CameraTool postProcessor(TextPostProcessor postProcessor) {
+		mPostProcessor = postProcessor;
+		return this;
+	}
+
+	public RateController.Policy getRatePolicy() {
+		return mRatePolicy;
+	}
+
+	/** How many preview frames are sent to OCR, takes effect on startOCR */
+	public CameraTool ratePolicy(RateController.Policy policy) {
+		mRatePolicy = policy;
+		return this;
+	}
+
+	public float getTargetFps() {
+		return mTargetFps;
+	}
+
+	/** OCR rate of the FIXED_FPS policy */
+	public CameraTool targetFps(float fps) {
+		if (fps <= 0)
+			throw new IllegalArgumentException("Target fps must be positive");
+		mTargetFps = fps;
+		return this;
+	}
+
+	public LoadSignal getLoadSignal() {
+		return mLoadSignal;
+	}
+
+	/**
+	 * Source of the device load, the OCR rate goes down as the load goes
+	 * up. {@link LoadSignal#NONE} ignores the load, {@link CpuLoadSignal}
+	 * follows the CPU usage, {@link ThermalLoadSignal} the temperature and
+	 * {@link BatteryLoadSignal} the battery. Combine them with a
+	 * {@link MaxLoadSignal}.
+	 */
+	public CameraTool loadSignal(LoadSignal signal) {
+		mLoadSignal = signal;
+		return this;
+	}
+
+	public ResolutionPolicy getResolutionPolicy() {
+		return mResolutionPolicy;
+	}
+
+	/**
+	 * Chooses the preview size for the text in the picker instead of the
+	 * view size, and chooses again while the picker is resized. Null picks
+	 * the size closest to the view, once.
+	 */
+	public CameraTool resolutionPolicy(ResolutionPolicy policy) {
+		mResolutionPolicy = policy;
+		return this;
+	}
+
+	public QueuePolicy getQueuePolicy() {
+		return mQueuePolicy;
+	}
+
+	/** How frames are handed from the preview callback to OCR, takes effect on startOCR */
+	public CameraTool queuePolicy(QueuePolicy policy) {
+		mQueuePolicy = policy;
+		return this;
+	}
+
+	/** Snapshot of the pipeline counters and per-stage latencies */
+	public PipelineStats metrics() {
+		PipelineStats stats = new PipelineStats();
+		OCRPipeline pipeline = mPipeline;
+		if (pipeline != null) {
+			if (PipelineMetrics.ENABLED)
+				pipeline.metrics().fill(stats);
+			stats.mQueueDepth = pipeline.queue().size();
+			stats.mDroppedFrames = pipeline.queue().dropped();
+			ChangeDetector detector = pipeline.changeDetector();
+			if (detector != null)
+				stats.mUnchangedFrames = detector.unchangedFrames();
+			RateController rate = pipeline.rateController();
+			stats.mSkippedFrames = rate.skippedFrames();
+			stats.mLatencyNanos = rate.latencyNanos();
+			stats.mIntervalNanos = rate.intervalNanos();
+			SharpnessFilter sharpness = pipeline.sharpnessFilter();
+			if (sharpness != null) {
+				stats.mBlurredFrames = sharpness.rejectedFrames();
+				stats.mSharpnessThreshold = sharpness.threshold();
+				stats.mSharpnessHistogram = sharpness.histogram();
+			}
+		}
+		EngineHolder engines = mEngines;
+		if (engines != null) {
+			stats.mEnginesReady = engines.ready();
+			stats.mEngineStartupNanos = engines.startupNanos();
+			stats.mEngineInitNanos = engines.initNanos();
+			stats.mEngineError = engines.error();
+		}
+		ArchiveWriter archive = mArchive;
+		if (archive != null) {
+			stats.mArchivedFrames = archive.written();
+			stats.mArchiveDropped = archive.dropped();
+		}
+		stats.mBufferPoolSize = mBufferPool.capacity();
+		stats.mBuffersAvailable = mBufferPool.available();
+		stats.mBufferHits = mBufferPool.hits();
+		stats.mBufferMisses = mBufferPool.misses();
+		// the pools outlive the pipeline and count their own allocations
+		stats.mAllocatedBytes += mBufferPool.allocatedBytes();
+		stats.mAllocatedBytes += mBitmapPool.allocatedBytes();
+		return stats;
+	}
+
+	public CameraInterface.ErrorListener getErrorListener() {
+		return mErrorListener;
+	}
+
+	/**
+	 * Listener told on the main thread when the camera or OCR can not run,
+	 * e.g. the camera is in use or the language data could not be installed.
+	 */
+	public CameraTool errorListener(CameraInterface.ErrorListener listener) {
+		mErrorListener = listener;
+		return this;
+	}
+
+	public CameraInterface.MetricsListener getMetricsListener() {
+		return mMetricsListener;
+	}
+
+	/**
+	 * Listener called on the main thread every periodMillis with a fresh
+	 * {@link #metrics()} snapshot while OCR is running.
+	 */
+	public CameraTool metricsListener(CameraInterface.MetricsListener listener,
+			long periodMillis) {
+		mMetricsListener = listener;
+		mMetricsPeriod = periodMillis;
+		return this;
+	}
+
+	private final Runnable mMetricsReporter = new Runnable() {
+		@Override
+		public void run() {
+			CameraInterface.MetricsListener listener = mMetricsListener;
+			OCRPipeline pipeline = mPipeline;
+			if (listener == null || pipeline == null || !pipeline.isRunning())
+				return;
+			listener.onMetrics(metrics());
+			mHandler.postDelayed(this, mMetricsPeriod);
+		}
+	};
+
 }
@@ -0,0 +1,120 @@
+package com.gmail.mplackowski.cameratool;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cheap "has the picker crop changed" test run before recognition.
+ *
+ * The crop is reduced to a GRID x GRID signature of block means computed on
+ * a subsampled luma grid. When the mean absolute difference to the
+ * signature of the last recognized frame stays below the threshold, the
+ * frame is considered unchanged and its cached result is reused.
+ */
+public class ChangeDetector {
+
+	public static final int GRID = 16;
+	public static final int SIGNATURE_SIZE = GRID * GRID;
+
+	/** Samples taken along each side of a block */
+	private static final int BLOCK_SAMPLES = 4;
+
+	public static class CachedResult {
+		public final String text;
+		public final float accuracy;
+
+		CachedResult(String text, float accuracy) {
+			this.text = text;
+			this.accuracy = accuracy;
+		}
+	}
+
+	private final float mThreshold;
+	private final int[] mReference = new int[SIGNATURE_SIZE];
+	private int mReferenceWidth;
+	private int mReferenceHeight;
+	private CachedResult mCached;
+
+	private final AtomicLong mUnchanged = new AtomicLong();
+
+	/**
+	 * @param threshold mean difference of the block means, in luma levels,
+	 *  below which two crops are considered equal
+	 */
+	public ChangeDetector(float threshold) {
+		mThreshold = threshold;
+	}
+
+	/**
+	 * Computes the signature of a luma crop.
+	 *
+	 * @param out array of at least SIGNATURE_SIZE elements
+	 */
+	public static void signature(byte[] luma, int width, int height, int[] out) {
+		int o = 0;
+		for (int by = 0; by < GRID; by++) {
+			int y0 = by * height / GRID;
+			int y1 = Math.max(y0 + 1, (by + 1) * height / GRID);
+			int stepY = Math.max(1, (y1 - y0) / BLOCK_SAMPLES);
+
+			for (int bx = 0; bx < GRID; bx++) {
+				int x0 = bx * width / GRID;
+				int x1 = Math.max(x0 + 1, (bx + 1) * width / GRID);
+				int stepX = Math.max(1, (x1 - x0) / BLOCK_SAMPLES);
+
+				int sum = 0;
+				int count = 0;
+				for (int y = y0; y < y1 && y < height; y += stepY) {
+					int row = y * width;
+					for (int x = x0; x < x1 && x < width; x += stepX) {
+						sum += luma[row + x] & 0xFF;
+						count++;
+					}
+				}
+				out[o++] = count == 0 ? 0 : sum / count;
+			}
+		}
+	}
+
+	/**
+	 * @return result of the last recognized frame if the crop with the given
+	 *  signature is effectively the same, null if it should be recognized
+	 */
+	public synchronized CachedResult unchanged(int[] signature, int width,
+			int height) {
+		if (mCached == null || width != mReferenceWidth
+				|| height != mReferenceHeight)
+			return null;
+
+		int difference = 0;
+		for (int i = 0; i < SIGNATURE_SIZE; i++)
+			difference += Math.abs(signature[i] - mReference[i]);
+
+		if ((float) difference / SIGNATURE_SIZE >= mThreshold)
+			return null;
+
+		mUnchanged.incrementAndGet();
+		return mCached;
+	}
+
+	/** Stores the signature and result of a recognized frame */
+	public synchronized void update(int[] signature, int width, int height,
+			String text, float accuracy) {
+		System.arraycopy(signature, 0, mReference, 0, SIGNATURE_SIZE);
+		mReferenceWidth = width;
+		mReferenceHeight = height;
+		mCached = new CachedResult(text, accuracy);
+	}
+
+	public synchronized void reset() {
+		mCached = null;
+	}
+
+	public float threshold() {
+		return mThreshold;
+	}
+
+	/** Frames whose recognition was skipped */
+	public long unchangedFrames() {
+		return mUnchanged.get();
+	}
+}
@@ -0,0 +1,73 @@
+package com.gmail.mplackowski.cameratool;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * {@link LoadSignal} based on the total CPU usage read from /proc/stat.
+ *
+ * The file is read at most once per sampling period, between reads the
+ * last value is returned. Where /proc/stat is not readable the load is 0.
+ */
+public class CpuLoadSignal implements LoadSignal {
+
+	private static final String PROC_STAT = "/proc/stat";
+
+	private final long mPeriodNanos;
+	private long mLastSample;
+	private long mLastIdle;
+	private long mLastTotal;
+	private volatile float mLoad;
+	private boolean mAvailable = true;
+
+	public CpuLoadSignal(long periodMillis) {
+		mPeriodNanos = periodMillis * 1000000L;
+	}
+
+	@Override
+	public float load() {
+		long now = System.nanoTime();
+		if (mAvailable && now - mLastSample >= mPeriodNanos) {
+			mLastSample = now;
+			sample();
+		}
+		return mLoad;
+	}
+
+	private void sample() {
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(PROC_STAT), 256);
+			String line = reader.readLine();
+			if (line == null || !line.startsWith("cpu ")) {
+				mAvailable = false;
+				return;
+			}
+
+			// cpu user nice system idle iowait irq softirq ...
+			String[] fields = line.trim().split("\\s+");
+			long total = 0;
+			for (int i = 1; i < fields.length; i++)
+				total += Long.parseLong(fields[i]);
+			long idle = Long.parseLong(fields[4]);
+
+			long totalDelta = total - mLastTotal;
+			if (mLastTotal != 0 && totalDelta > 0)
+				mLoad = 1f - (float) (idle - mLastIdle) / totalDelta;
+			mLastTotal = total;
+			mLastIdle = idle;
+		} catch (IOException e) {
+			mAvailable = false;
+		} catch (RuntimeException e) {
+			mAvailable = false;
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package com.gmail.mplackowski.cameratool;
+
+/**
+ * Immutable crop of a preview frame: the picker rectangle in rotated
+ * (display) space for one preview size and rotation, clamped to the frame,
+ * with everything the worker needs to read it precomputed.
+ *
+ * For every output row the table holds the NV21 index of its first luma
+ * sample, {@link #pixelStep()} is the index step to the next sample of the
+ * row. {@link RectanglePicker#geometry(int, int, int)} builds it on the main
+ * thread and CameraTool publishes a new instance whenever the picker or the
+ * preview changes, so a frame always carries a consistent crop.
+ */
+public final class CropGeometry {
+
+	private final int mFrameWidth;
+	private final int mFrameHeight;
+	private final int mDegrees;
+	private final int mLeft;
+	private final int mTop;
+	private final int mRight;
+	private final int mBottom;
+	private final int mPixelStep;
+	private final int[] mRowOffsets;
+
+	/**
+	 * @param frameWidth frame width in sensor space
+	 * @param frameHeight frame height in sensor space
+	 * @param degrees clockwise rotation, one of 0, 90, 180, 270
+	 */
+	public CropGeometry(int frameWidth, int frameHeight, int degrees, int left,
+			int top, int right, int bottom) {
+		boolean portrait = FrameEngine.isPortrait(degrees);
+		int rotatedWidth = portrait ? frameHeight : frameWidth;
+		int rotatedHeight = portrait ? frameWidth : frameHeight;
+		mFrameWidth = frameWidth;
+		mFrameHeight = frameHeight;
+		mDegrees = degrees;
+		mLeft = clamp(left, rotatedWidth);
+		mTop = clamp(top, rotatedHeight);
+		mRight = Math.max(mLeft, clamp(right, rotatedWidth));
+		mBottom = Math.max(mTop, clamp(bottom, rotatedHeight));
+
+		int[] rows = new int[mBottom - mTop];
+		for (int r = 0; r < rows.length; r++)
+			rows[r] = sensorIndex(frameWidth, frameHeight, degrees, mLeft, mTop + r);
+		mRowOffsets = rows;
+		mPixelStep = pixelStep(frameWidth, degrees);
+	}
+
+	/**
+	 * NV21 index of the luma sample shown at (x, y) in rotated space, the
+	 * crops of {@link FrameEngine} and the row table are built on it.
+	 *
+	 * @param degrees clockwise rotation, one of 0, 90, 180, 270
+	 */
+	public static int sensorIndex(int frameWidth, int frameHeight, int degrees,
+			int x, int y) {
+		switch (degrees) {
+		case CameraInterface.DEGREE_0:
+			return y * frameWidth + x;
+		case CameraInterface.DEGREE_90:
+			// rotated (x, y) <- sensor (y, height - 1 - x)
+			return (frameHeight - 1 - x) * frameWidth + y;
+		case CameraInterface.DEGREE_180:
+			// rotated (x, y) <- sensor (width - 1 - x, height - 1 - y)
+			return (frameHeight - 1 - y) * frameWidth + (frameWidth - 1 - x);
+		case CameraInterface.DEGREE_270:
+			// rotated (x, y) <- sensor (width - 1 - y, x)
+			return x * frameWidth + (frameWidth - 1 - y);
+		default:
+			throw new IllegalArgumentException("Unsupported rotation " + degrees);
+		}
+	}
+
+	/** Index step from rotated (x, y) to (x + 1, y) */
+	public static int pixelStep(int frameWidth, int degrees) {
+		switch (degrees) {
+		case CameraInterface.DEGREE_0:
+			return 1;
+		case CameraInterface.DEGREE_90:
+			return -frameWidth;
+		case CameraInterface.DEGREE_180:
+			return -1;
+		case CameraInterface.DEGREE_270:
+			return frameWidth;
+		default:
+			throw new IllegalArgumentException("Unsupported rotation " + degrees);
+		}
+	}
+
+	/**
+	 * Maps a crop in rotated space back to the unrotated frame, e.g. to cut
+	 * it from a sensor bitmap before rotating.
+	 *
+	 * @return left, top, right, bottom in sensor space
+	 */
+	public static int[] toSensor(int frameWidth, int frameHeight, int degrees,
+			int left, int top, int right, int bottom) {
+		switch (degrees) {
+		case CameraInterface.DEGREE_0:
+			return new int[] { left, top, right, bottom };
+		case CameraInterface.DEGREE_90:
+			return new int[] { top, frameHeight - right, bottom, frameHeight - left };
+		case CameraInterface.DEGREE_180:
+			return new int[] { frameWidth - right, frameHeight - bottom,
+					frameWidth - left, frameHeight - top };
+		case CameraInterface.DEGREE_270:
+			return new int[] { frameWidth - bottom, left, frameWidth - top, right };
+		default:
+			throw new IllegalArgumentException("Unsupported rotation " + degrees);
+		}
+	}
+
+	/** Whether this is the crop of these values, so it can be reused */
+	public boolean hasSettings(int frameWidth, int frameHeight, int degrees,
+			int left, int top, int right, int bottom) {
+		return mFrameWidth == frameWidth && mFrameHeight == frameHeight
+				&& mDegrees == degrees && mLeft == left && mTop == top
+				&& mRight == right && mBottom == bottom;
+	}
+
+	public boolean isEmpty() {
+		return mRight <= mLeft || mBottom <= mTop;
+	}
+
+	public int frameWidth() {
+		return mFrameWidth;
+	}
+
+	public int frameHeight() {
+		return mFrameHeight;
+	}
+
+	public int degrees() {
+		return mDegrees;
+	}
+
+	/** Crop in rotated (display) space */
+	public int left() {
+		return mLeft;
+	}
+
+	public int top() {
+		return mTop;
+	}
+
+	public int right() {
+		return mRight;
+	}
+
+	public int bottom() {
+		return mBottom;
+	}
+
+	/** Width of the cropped, rotated image */
+	public int width() {
+		return mRight - mLeft;
+	}
+
+	public int height() {
+		return mBottom - mTop;
+	}
+
+	/** Share of the rotated frame width the crop covers */
+	public float widthFraction() {
+		return (float) width() / (FrameEngine.isPortrait(mDegrees) ? mFrameHeight : mFrameWidth);
+	}
+
+	public float heightFraction() {
+		return (float) height() / (FrameEngine.isPortrait(mDegrees) ? mFrameWidth : mFrameHeight);
+	}
+
+	/** NV21 index of the first luma sample of output row y */
+	public int rowOffset(int y) {
+		return mRowOffsets[y];
+	}
+
+	/** Index step between neighbouring samples of an output row */
+	public int pixelStep() {
+		return mPixelStep;
+	}
+
+	/** Row table itself, must not be modified */
+	int[] rowOffsets() {
+		return mRowOffsets;
+	}
+
+	@Override
+	public String toString() {
+		return "CropGeometry[" + mFrameWidth + "x" + mFrameHeight + " " + mDegrees
+				+ " " + mLeft + "," + mTop + " - " + mRight + "," + mBottom + "]";
+	}
+
+	private static int clamp(int value, int max) {
+		if (value < 0)
+			return 0;
+		if (value > max)
+			return max;
+		return value;
+	}
+}
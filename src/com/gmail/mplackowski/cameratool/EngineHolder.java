@@ -0,0 +1,232 @@
+package com.gmail.mplackowski.cameratool;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Initialized OCR engines kept across pipeline starts.
+ *
+ * Loading the language data takes hundreds of milliseconds per engine, so
+ * engines are initialized once on a background thread and lent to the
+ * workers of every pipeline started afterwards. Stopping a pipeline gives
+ * its engines back warm, only {@link #shutdown()} ends them.
+ *
+ * A failed language data install or an engine that fails to initialize
+ * stops the initializer, the other engines would load the same data. The
+ * reason is kept in {@link #error()} and given to the {@link Listener},
+ * workers still waiting for an engine get none.
+ */
+public class EngineHolder {
+
+	private static final String TAG = "EngineHolder";
+	/** How often a waiting acquire checks for a failure */
+	private static final long FAILURE_CHECK_MILLIS = 100;
+
+	/** Called on the initializer thread */
+	public interface Listener {
+		public void onEngineError(String error);
+	}
+
+	private final OcrEngine.Factory mFactory;
+	private final String mDataPath;
+	private final String mLanguage;
+	private final Future<Boolean> mData;
+	private final BlockingQueue<OcrEngine> mIdle = new LinkedBlockingQueue<OcrEngine>();
+
+	private final Object mLock = new Object();
+	private int mRequested;
+	private int mCreated;
+	private Thread mInitThread;
+	private long mWarmUpTime;
+	private volatile boolean mShutdown;
+	private volatile String mError;
+	private volatile Listener mListener;
+
+	private volatile int mReady;
+	private volatile long mStartupNanos;
+	private volatile long mInitNanos;
+
+	public EngineHolder(OcrEngine.Factory factory, String dataPath, String language) {
+		this(factory, dataPath, language, null);
+	}
+
+	/**
+	 * @param data language data install, e.g. from {@link AssetInstaller},
+	 *  engines are initialized once it is done. Null if already in place.
+	 */
+	public EngineHolder(OcrEngine.Factory factory, String dataPath, String language,
+			Future<Boolean> data) {
+		mFactory = factory;
+		mDataPath = dataPath;
+		mLanguage = language;
+		mData = data;
+	}
+
+	/** Told when the initializer stops on an error */
+	public EngineHolder listener(Listener listener) {
+		mListener = listener;
+		return this;
+	}
+
+	public boolean hasSettings(OcrEngine.Factory factory, String dataPath,
+			String language) {
+		return mFactory == factory && equal(mDataPath, dataPath)
+				&& equal(mLanguage, language);
+	}
+
+	/**
+	 * Makes sure count engines exist, the missing ones are initialized on a
+	 * background thread. Returns immediately.
+	 */
+	public void warmUp(int count) {
+		synchronized (mLock) {
+			if (mShutdown || mError != null || count <= mRequested)
+				return;
+			mRequested = count;
+			if (mInitThread != null)
+				return;
+			if (mCreated == 0)
+				mWarmUpTime = System.nanoTime();
+			mInitThread = new Thread(mInitializer, "OCREngineInit");
+			mInitThread.start();
+		}
+	}
+
+	/**
+	 * Blocks until an initialized engine is free, see
+	 * {@link #release(OcrEngine)}.
+	 *
+	 * @return null if none is idle and no more will be initialized, after a
+	 *  failure or shutdown
+	 */
+	public OcrEngine acquire() throws InterruptedException {
+		while (true) {
+			OcrEngine engine = mIdle.poll(FAILURE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+			if (engine != null || mError != null || mShutdown)
+				return engine;
+		}
+	}
+
+	/** Gives the engine back, it is ended if the holder has been shut down */
+	public void release(OcrEngine engine) {
+		mIdle.offer(engine);
+		if (mShutdown)
+			endIdle();
+	}
+
+	/**
+	 * Ends the idle engines, engines still used by workers are ended when
+	 * they are released. The holder can not be used afterwards.
+	 */
+	public void shutdown() {
+		synchronized (mLock) {
+			mShutdown = true;
+			if (mInitThread != null)
+				mInitThread.interrupt();
+		}
+		endIdle();
+	}
+
+	public boolean isShutdown() {
+		return mShutdown;
+	}
+
+	/** Engines initialized so far */
+	public int ready() {
+		return mReady;
+	}
+
+	/** Time from the first warm up until the first engine was ready, 0 before */
+	public long startupNanos() {
+		return mStartupNanos;
+	}
+
+	/** Time spent in engine init on the background thread */
+	public long initNanos() {
+		return mInitNanos;
+	}
+
+	/** Why no more engines are initialized, null while nothing failed */
+	public String error() {
+		return mError;
+	}
+
+	private void endIdle() {
+		OcrEngine engine;
+		while ((engine = mIdle.poll()) != null)
+			engine.end();
+	}
+
+	private final Runnable mInitializer = new Runnable() {
+		@Override
+		public void run() {
+			while (true) {
+				long warmUpTime;
+				synchronized (mLock) {
+					if (mShutdown || mError != null || mCreated >= mRequested) {
+						mInitThread = null;
+						return;
+					}
+					mCreated++;
+					warmUpTime = mWarmUpTime;
+				}
+
+				if (!awaitData())
+					return;
+				long start = System.nanoTime();
+				OcrEngine engine = mFactory.create();
+				boolean initialized = engine.init(mDataPath, mLanguage);
+				long end = System.nanoTime();
+				mInitNanos += end - start;
+				if (!initialized) {
+					engine.end();
+					fail("Unable to init OCR engine for " + mLanguage);
+					continue;
+				}
+				if (mReady == 0)
+					mStartupNanos = end - warmUpTime;
+				mReady++;
+				if (OCRLog.D) OCRLog.d(TAG, "Engine " + mReady + " ready in "
+						+ (end - start) / 1000000 + " ms");
+				release(engine);
+			}
+		}
+	};
+
+	/** @return false if the install failed or shutdown interrupted it */
+	private boolean awaitData() {
+		if (mData == null)
+			return true;
+		try {
+			if (mData.get())
+				return true;
+			fail("Language data for " + mLanguage + " is not installed");
+		} catch (ExecutionException e) {
+			fail("Language data install failed: " + e.getCause());
+		} catch (InterruptedException e) {
+			// shut down
+		}
+		synchronized (mLock) {
+			mInitThread = null;
+		}
+		return false;
+	}
+
+	/** Stops the initializer, it exits on its next turn */
+	private void fail(String error) {
+		OCRLog.e(TAG, error);
+		synchronized (mLock) {
+			mError = error;
+		}
+		Listener listener = mListener;
+		if (listener != null)
+			listener.onEngineError(error);
+	}
+
+	private static boolean equal(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+}
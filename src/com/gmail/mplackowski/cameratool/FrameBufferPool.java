@@ -0,0 +1,117 @@
+package com.gmail.mplackowski.cameratool;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of preview frame buffers.
+ *
+ * Buffers are handed to the camera with addCallbackBuffer, travel through
+ * the OCR queue and come back with {@link #release(PreviewFrame)} once the
+ * worker is done with them. In steady state every {@link #acquire()} is
+ * served from the pool and nothing is allocated.
+ */
+public class FrameBufferPool {
+
+	private final BlockingQueue<PreviewFrame> mFree;
+	private final Map<byte[], PreviewFrame> mFrames;
+	private final int mCapacity;
+	private volatile int mBufferSize;
+
+	private final AtomicLong mHits = new AtomicLong();
+	private final AtomicLong mMisses = new AtomicLong();
+	private final AtomicLong mAllocatedBytes = new AtomicLong();
+
+	public FrameBufferPool(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Pool capacity must be positive");
+		mCapacity = capacity;
+		mFree = new ArrayBlockingQueue<PreviewFrame>(capacity);
+		mFrames = new IdentityHashMap<byte[], PreviewFrame>();
+	}
+
+	/**
+	 * Sets the size of the buffers handed out, buffers of a different size
+	 * are dropped.
+	 */
+	public synchronized void configure(int bufferSize) {
+		if (bufferSize == mBufferSize)
+			return;
+		mBufferSize = bufferSize;
+		mFree.clear();
+		mFrames.clear();
+	}
+
+	/** @return pooled frame, or a new one when the pool is empty */
+	public PreviewFrame acquire() {
+		PreviewFrame frame = mFree.poll();
+		if (frame != null && frame.data().length == mBufferSize) {
+			mHits.incrementAndGet();
+			return frame;
+		}
+		mMisses.incrementAndGet();
+		mAllocatedBytes.addAndGet(mBufferSize);
+		frame = new PreviewFrame(new byte[mBufferSize]);
+		synchronized (this) {
+			mFrames.put(frame.data(), frame);
+		}
+		return frame;
+	}
+
+	/** Returns the frame to the pool, extra or stale frames are dropped */
+	public synchronized void release(PreviewFrame frame) {
+		if (frame == null)
+			return;
+		if (frame.data().length == mBufferSize && mFree.offer(frame))
+			mFrames.put(frame.data(), frame);
+		else
+			mFrames.remove(frame.data());
+	}
+
+	/**
+	 * Forgets all frames, used when the camera is released together with
+	 * the buffers it was holding.
+	 */
+	public synchronized void clear() {
+		mFree.clear();
+		mFrames.clear();
+	}
+
+	/** @return frame owning the buffer handed back by the camera, or null */
+	public synchronized PreviewFrame frameFor(byte[] data) {
+		return mFrames.get(data);
+	}
+
+	public int capacity() {
+		return mCapacity;
+	}
+
+	public int available() {
+		return mFree.size();
+	}
+
+	public int bufferSize() {
+		return mBufferSize;
+	}
+
+	public long hits() {
+		return mHits.get();
+	}
+
+	public long misses() {
+		return mMisses.get();
+	}
+
+	/** Bytes allocated for new buffers */
+	public long allocatedBytes() {
+		return mAllocatedBytes.get();
+	}
+
+	/** Size in bytes of a NV21 frame */
+	public static int nv21Size(int width, int height) {
+		return width * height * 3 / 2;
+	}
+}
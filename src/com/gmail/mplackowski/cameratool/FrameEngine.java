@@ -0,0 +1,206 @@
+package com.gmail.mplackowski.cameratool;
+
+/**
+ * Crops and rotates the luma (Y) plane of NV21 preview frames.
+ *
+ * The crop rectangle is given in rotated (display) space, the same space
+ * as {@link CropGeometry}.
+ * Only the pixels inside the crop are read and the result is written into a
+ * buffer that is reused between frames, so no allocation happens once the
+ * buffer has grown to the biggest crop.
+ */
+public class FrameEngine {
+
+	private byte[] mLuma;
+	private int mWidth;
+	private int mHeight;
+	private long mAllocatedBytes;
+
+	public FrameEngine() {
+		mLuma = new byte[0];
+	}
+
+	/**
+	 * Crops the luma plane of the NV21 frame.
+	 *
+	 * @param data NV21 frame
+	 * @param width frame width in sensor space
+	 * @param height frame height in sensor space
+	 * @param degrees clockwise rotation, one of 0, 90, 180, 270
+	 * @return false if the crop is empty after clamping it to the frame
+	 */
+	public boolean crop(byte[] data, int width, int height, int degrees,
+			int left, int top, int right, int bottom) {
+
+		// 1. Clamp crop to the rotated frame
+		boolean portrait = isPortrait(degrees);
+		int rotatedWidth = portrait ? height : width;
+		int rotatedHeight = portrait ? width : height;
+
+		left = clamp(left, rotatedWidth);
+		right = clamp(right, rotatedWidth);
+		top = clamp(top, rotatedHeight);
+		bottom = clamp(bottom, rotatedHeight);
+
+		int w = right - left;
+		int h = bottom - top;
+		if (w <= 0 || h <= 0) {
+			mWidth = 0;
+			mHeight = 0;
+			return false;
+		}
+
+		// 2. Make sure the output fits
+		if (mLuma.length < w * h) {
+			mLuma = new byte[w * h];
+			mAllocatedBytes += w * h;
+		}
+		mWidth = w;
+		mHeight = h;
+
+		// 3. Copy rows of the crop, mapping rotated coordinates back to sensor
+		byte[] out = mLuma;
+		int step = CropGeometry.pixelStep(width, degrees);
+		int o = 0;
+		for (int y = top; y < bottom; y++) {
+			int i = CropGeometry.sensorIndex(width, height, degrees, left, y);
+			if (step == 1) {
+				System.arraycopy(data, i, out, o, w);
+				o += w;
+				continue;
+			}
+			for (int x = 0; x < w; x++, i += step)
+				out[o++] = data[i];
+		}
+		return true;
+	}
+
+	/**
+	 * Crops the luma plane with the precomputed rows of the geometry, same
+	 * result as {@link #crop(byte[], int, int, int, int, int, int, int)}.
+	 *
+	 * @return false if the crop is empty
+	 */
+	public boolean crop(byte[] data, CropGeometry geometry) {
+		int w = geometry.width();
+		int h = geometry.height();
+		if (w <= 0 || h <= 0) {
+			mWidth = 0;
+			mHeight = 0;
+			return false;
+		}
+		if (mLuma.length < w * h) {
+			mLuma = new byte[w * h];
+			mAllocatedBytes += w * h;
+		}
+		mWidth = w;
+		mHeight = h;
+
+		byte[] out = mLuma;
+		int[] rows = geometry.rowOffsets();
+		int step = geometry.pixelStep();
+		if (step == 1) {
+			for (int y = 0, o = 0; y < h; y++, o += w)
+				System.arraycopy(data, rows[y], out, o, w);
+			return true;
+		}
+		int o = 0;
+		for (int y = 0; y < h; y++) {
+			int i = rows[y];
+			for (int x = 0; x < w; x++, i += step)
+				out[o++] = data[i];
+		}
+		return true;
+	}
+
+	/**
+	 * Expands the current crop to opaque ARGB gray pixels.
+	 *
+	 * @param out array of at least width() * height() pixels
+	 */
+	public void toArgb(int[] out) {
+		byte[] luma = mLuma;
+		int size = mWidth * mHeight;
+		for (int i = 0; i < size; i++) {
+			int y = luma[i] & 0xFF;
+			out[i] = 0xFF000000 | (y << 16) | (y << 8) | y;
+		}
+	}
+
+	/**
+	 * Converts the crop of the NV21 frame to opaque ARGB pixels, rotating it
+	 * like {@link #crop(byte[], int, int, int, int, int, int, int)}. Only
+	 * the pixels of the crop are read.
+	 *
+	 * @param out array of at least (right - left) * (bottom - top) pixels
+	 * @throws IllegalArgumentException if the crop is not inside the
+	 *  rotated frame
+	 */
+	public static void cropArgb(byte[] data, int width, int height, int degrees,
+			int left, int top, int right, int bottom, int[] out) {
+		boolean portrait = isPortrait(degrees);
+		if (left < 0 || top < 0 || right <= left || bottom <= top
+				|| right > (portrait ? height : width)
+				|| bottom > (portrait ? width : height))
+			throw new IllegalArgumentException("Crop " + left + "," + top + " - "
+					+ right + "," + bottom + " is outside the frame");
+
+		// 1. Sensor position of the first pixel of a row and the step along it
+		int step = CropGeometry.pixelStep(width, degrees);
+		int dx = step == 1 || step == -1 ? step : 0;
+		int dy = dx == 0 ? step / width : 0;
+		int frameSize = width * height;
+		int o = 0;
+		for (int y = top; y < bottom; y++) {
+			int i = CropGeometry.sensorIndex(width, height, degrees, left, y);
+			int sx = i % width;
+			int sy = i / width;
+
+			// 2. Full range YUV to RGB, chroma is shared by 2x2 pixels
+			for (int x = left; x < right; x++, sx += dx, sy += dy) {
+				int l = data[sy * width + sx] & 0xFF;
+				int uv = frameSize + (sy >> 1) * width + (sx & ~1);
+				int v = (data[uv] & 0xFF) - 128;
+				int u = (data[uv + 1] & 0xFF) - 128;
+				int r = l + ((1436 * v) >> 10);
+				int g = l - ((352 * u + 731 * v) >> 10);
+				int b = l + ((1815 * u) >> 10);
+				r = r < 0 ? 0 : r > 255 ? 255 : r;
+				g = g < 0 ? 0 : g > 255 ? 255 : g;
+				b = b < 0 ? 0 : b > 255 ? 255 : b;
+				out[o++] = 0xFF000000 | (r << 16) | (g << 8) | b;
+			}
+		}
+	}
+
+	/** Luma buffer, only the first width() * height() bytes are valid */
+	public byte[] luma() {
+		return mLuma;
+	}
+
+	public int width() {
+		return mWidth;
+	}
+
+	/** Bytes allocated for the luma buffer so far */
+	public long allocatedBytes() {
+		return mAllocatedBytes;
+	}
+
+	public int height() {
+		return mHeight;
+	}
+
+	public static boolean isPortrait(int degrees) {
+		return degrees == CameraInterface.DEGREE_90
+				|| degrees == CameraInterface.DEGREE_270;
+	}
+
+	private static int clamp(int value, int max) {
+		if (value < 0)
+			return 0;
+		if (value > max)
+			return max;
+		return value;
+	}
+}
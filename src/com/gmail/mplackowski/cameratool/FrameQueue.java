@@ -0,0 +1,29 @@
+package com.gmail.mplackowski.cameratool;
+
+/**
+ * Hand-off of preview frames between the camera callback and the OCR worker.
+ *
+ * Frames the queue decides to drop are passed to the {@link Recycler}, so
+ * their buffers can go back to the camera.
+ */
+public interface FrameQueue {
+
+	interface Recycler {
+		public void recycle(PreviewFrame frame);
+	}
+
+	/** Called by the producer, never blocks */
+	public void offer(PreviewFrame frame);
+
+	/** Called by the consumer, blocks until a frame is available */
+	public PreviewFrame take() throws InterruptedException;
+
+	/** Drops all pending frames */
+	public void clear();
+
+	/** Number of frames waiting */
+	public int size();
+
+	/** Number of frames dropped since the queue was created */
+	public long dropped();
+}
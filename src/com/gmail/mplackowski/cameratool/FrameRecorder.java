@@ -0,0 +1,197 @@
+package com.gmail.mplackowski.cameratool;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Appends raw preview frames with their metadata to a file that
+ * {@link FrameReplay} can feed back through {@link OCRPipeline}.
+ *
+ * Layout, big endian:
+ *
+ *     file header:   int MAGIC, int VERSION
+ *     record header: int length, int width, int height, int degrees,
+ *                    int cropLeft, int cropTop, int cropRight, int cropBottom,
+ *                    long sequence, long timestamp
+ *     record data:   length bytes of NV21
+ *
+ * Headers have a fixed size, so the file can be memory mapped and walked
+ * without parsing the frames.
+ *
+ * Frames are copied into a bounded set of reusable slots and written on
+ * the recorder's own thread, so the preview callback never waits for the
+ * disk. When all slots are waiting the oldest frame is replaced. The
+ * sequence is the capture index given by the caller, a gap between two
+ * records is the number of frames that were not recorded.
+ */
+public class FrameRecorder extends Thread {
+
+	private static final String TAG = "FrameRecorder";
+
+	/** "POCR" */
+	public static final int MAGIC = 0x504F4352;
+	public static final int VERSION = 1;
+	public static final int FILE_HEADER = 8;
+	public static final int RECORD_HEADER = 48;
+
+	private static class Slot {
+		byte[] data = new byte[0];
+		int length;
+		CropGeometry geometry;
+		long sequence;
+		long timestamp;
+	}
+
+	private final FileOutputStream mOut;
+	private final FileChannel mChannel;
+	private final ByteBuffer mHeader = ByteBuffer.allocate(RECORD_HEADER);
+	private final BlockingQueue<Slot> mFree;
+	private final BlockingQueue<Slot> mPending;
+	/** Queued by close after the last frame */
+	private final Slot mStop = new Slot();
+	private volatile boolean mClosed;
+
+	private final AtomicLong mFrames = new AtomicLong();
+	private final AtomicLong mBytes = new AtomicLong();
+	private final AtomicLong mDropped = new AtomicLong();
+
+	/**
+	 * Creates the file, an existing one is overwritten. Frames are written
+	 * once the thread is started.
+	 *
+	 * @param capacity number of frames that can wait to be written
+	 */
+	public FrameRecorder(File file, int capacity) throws IOException {
+		super(TAG);
+		mOut = new FileOutputStream(file);
+		mChannel = mOut.getChannel();
+		ByteBuffer header = ByteBuffer.allocate(FILE_HEADER);
+		header.putInt(MAGIC).putInt(VERSION).flip();
+		write(header);
+
+		mFree = new ArrayBlockingQueue<Slot>(capacity);
+		mPending = new ArrayBlockingQueue<Slot>(capacity + 1);
+		for (int i = 0; i < capacity; i++)
+			mFree.offer(new Slot());
+	}
+
+	/**
+	 * Copies the frame and queues it for writing, never blocks.
+	 *
+	 * @param sequence capture index, counting frames that are not recorded
+	 */
+	public void record(byte[] data, CropGeometry geometry, long sequence, long timestamp) {
+		if (mClosed)
+			return;
+		Slot slot = mFree.poll();
+		if (slot == null) {
+			// drop the oldest waiting frame
+			slot = mPending.poll();
+			if (slot == mStop) {
+				// closed meanwhile, the stop goes back
+				mPending.offer(mStop);
+				return;
+			}
+			mDropped.incrementAndGet();
+			if (slot == null)
+				return;
+		}
+
+		int length = Math.min(data.length,
+				FrameBufferPool.nv21Size(geometry.frameWidth(), geometry.frameHeight()));
+		if (slot.data.length < length)
+			slot.data = new byte[length];
+		System.arraycopy(data, 0, slot.data, 0, length);
+		slot.length = length;
+		slot.geometry = geometry;
+		slot.sequence = sequence;
+		slot.timestamp = timestamp;
+
+		if (!mPending.offer(slot)) {
+			mDropped.incrementAndGet();
+			mFree.offer(slot);
+		}
+	}
+
+	/**
+	 * Stops taking frames, the writer finishes the ones waiting and closes
+	 * the file. Returns immediately.
+	 */
+	public void close() {
+		if (mClosed)
+			return;
+		mClosed = true;
+		// one place is kept free for the stop slot
+		mPending.offer(mStop);
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				Slot slot = mPending.take();
+				if (slot == mStop)
+					break;
+				try {
+					writeRecord(slot);
+				} finally {
+					slot.geometry = null;
+					mFree.offer(slot);
+				}
+			}
+		} catch (InterruptedException e) {
+			if (OCRLog.D) OCRLog.d(TAG, "Interrupted, " + mPending.size() + " frames not written");
+		} catch (IOException e) {
+			OCRLog.e(TAG, "Frame recording stopped " + e);
+		} finally {
+			mClosed = true;
+			try {
+				mOut.close();
+			} catch (IOException e) {
+				OCRLog.e(TAG, "Unable to close frame recording " + e);
+			}
+		}
+	}
+
+	private void writeRecord(Slot slot) throws IOException {
+		CropGeometry geometry = slot.geometry;
+		mHeader.clear();
+		mHeader.putInt(slot.length).putInt(geometry.frameWidth())
+				.putInt(geometry.frameHeight()).putInt(geometry.degrees())
+				.putInt(geometry.left()).putInt(geometry.top())
+				.putInt(geometry.right()).putInt(geometry.bottom())
+				.putLong(slot.sequence).putLong(slot.timestamp);
+		mHeader.flip();
+		write(mHeader);
+		write(ByteBuffer.wrap(slot.data, 0, slot.length));
+
+		mFrames.incrementAndGet();
+		mBytes.addAndGet(RECORD_HEADER + slot.length);
+	}
+
+	/** Frames written to the file */
+	public long frames() {
+		return mFrames.get();
+	}
+
+	/** Bytes of records written, without the file header */
+	public long bytes() {
+		return mBytes.get();
+	}
+
+	/** Frames replaced or refused before they could be written */
+	public long dropped() {
+		return mDropped.get();
+	}
+
+	private void write(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			mChannel.write(buffer);
+	}
+}
@@ -0,0 +1,196 @@
+package com.gmail.mplackowski.cameratool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds a {@link FrameRecorder} file through {@link OCRPipeline} in place
+ * of the camera, on a device or a plain JVM.
+ *
+ * The replay owns its frame buffers and is the recycler of the pipeline:
+ *
+ *     FrameReplay replay = new FrameReplay(file, 3);
+ *     OCRPipeline pipeline = new OCRPipeline(factory, workers,
+ *             new BlockingFrameQueue(3, 3, replay), replay, callback);
+ *     pipeline.start(dataPath, language);
+ *     replay.play(pipeline, false);
+ *
+ * At recorded speed frames are sent at their recorded intervals and go
+ * through the rate controller like camera frames, a frame with no free
+ * buffer is skipped as the camera would. At maximum speed every frame is
+ * sent as soon as a buffer is free.
+ */
+public class FrameReplay implements FrameQueue.Recycler {
+
+	private final MappedByteBuffer mFile;
+	private final int[] mOffsets;
+	private final BlockingQueue<PreviewFrame> mFree;
+	private long mSkipped;
+
+	/** @param buffers number of frames in flight between replay and workers */
+	public FrameReplay(File file, int buffers) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Recording too large to map " + file);
+			mFile = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			in.close();
+		}
+
+		// 1. File header
+		if (mFile.limit() < FrameRecorder.FILE_HEADER
+				|| mFile.getInt(0) != FrameRecorder.MAGIC)
+			throw new IOException("Not a frame recording " + file);
+		if (mFile.getInt(4) != FrameRecorder.VERSION)
+			throw new IOException("Unsupported recording version " + mFile.getInt(4));
+
+		// 2. Index the records, a truncated last record is ignored
+		int count = 0;
+		int maxLength = 0;
+		int[] offsets = new int[64];
+		int offset = FrameRecorder.FILE_HEADER;
+		while (offset + FrameRecorder.RECORD_HEADER <= mFile.limit()) {
+			int length = mFile.getInt(offset);
+			int next = offset + FrameRecorder.RECORD_HEADER + length;
+			if (length < 0 || next > mFile.limit() || next < offset)
+				break;
+			if (count == offsets.length) {
+				int[] grown = new int[count * 2];
+				System.arraycopy(offsets, 0, grown, 0, count);
+				offsets = grown;
+			}
+			offsets[count++] = offset;
+			maxLength = Math.max(maxLength, length);
+			offset = next;
+		}
+		mOffsets = new int[count];
+		System.arraycopy(offsets, 0, mOffsets, 0, count);
+
+		mFree = new ArrayBlockingQueue<PreviewFrame>(buffers);
+		for (int i = 0; i < buffers; i++)
+			mFree.offer(new PreviewFrame(new byte[maxLength]));
+	}
+
+	public int frames() {
+		return mOffsets.length;
+	}
+
+	/** Buffers not in use by the pipeline */
+	public int available() {
+		return mFree.size();
+	}
+
+	/** Frames not sent because of the rate controller or no free buffer */
+	public long skipped() {
+		return mSkipped;
+	}
+
+	/**
+	 * Sends all recorded frames to the pipeline, returns once the last one
+	 * has been submitted.
+	 *
+	 * @param recordedSpeed keep the recorded frame intervals, otherwise
+	 *  replay as fast as the workers take frames
+	 * @return number of frames submitted
+	 */
+	public int play(OCRPipeline pipeline, boolean recordedSpeed)
+			throws InterruptedException {
+		int submitted = 0;
+		long start = System.nanoTime();
+		long firstTimestamp = mOffsets.length > 0 ? timestamp(0) : 0;
+		CropGeometry geometry = null;
+
+		for (int r = 0; r < mOffsets.length; r++) {
+			if (!pipeline.isRunning())
+				break;
+			int offset = mOffsets[r];
+
+			// 1. Wait for the frame's turn, or for a free buffer
+			PreviewFrame frame;
+			long now;
+			if (recordedSpeed) {
+				long due = start + timestamp(r) - firstTimestamp;
+				while ((now = System.nanoTime()) < due) {
+					LockSupport.parkNanos(due - now);
+					if (Thread.interrupted())
+						throw new InterruptedException();
+				}
+				if (!pipeline.rateController().accept(now)
+						|| (frame = mFree.poll()) == null) {
+					mSkipped++;
+					continue;
+				}
+			} else {
+				frame = mFree.take();
+				now = System.nanoTime();
+			}
+
+			// 2. Copy the recorded frame into the buffer
+			int length = mFile.getInt(offset);
+			int data = offset + FrameRecorder.RECORD_HEADER;
+			mFile.position(data);
+			mFile.get(frame.data(), 0, length);
+			frame.stamp(submitted++, now);
+			geometry = geometry(geometry, offset);
+			frame.setGeometry(geometry);
+			pipeline.submit(frame);
+		}
+		return submitted;
+	}
+
+	/** Crop of the record, the previous one while it does not change */
+	private CropGeometry geometry(CropGeometry previous, int offset) {
+		int width = mFile.getInt(offset + 4);
+		int height = mFile.getInt(offset + 8);
+		int degrees = mFile.getInt(offset + 12);
+		int left = mFile.getInt(offset + 16);
+		int top = mFile.getInt(offset + 20);
+		int right = mFile.getInt(offset + 24);
+		int bottom = mFile.getInt(offset + 28);
+		if (previous != null && previous.hasSettings(width, height, degrees,
+				left, top, right, bottom))
+			return previous;
+		return new CropGeometry(width, height, degrees, left, top, right, bottom);
+	}
+
+	/**
+	 * Record r as a {@link BatchOCR} task, with the recorded rotation and
+	 * crop. Tasks can be loaded from any thread.
+	 */
+	public BatchOCR.Task task(final int r) {
+		return new BatchOCR.Task("frame-" + r) {
+			@Override
+			protected void load(BatchOCR.Image image) {
+				int offset = mOffsets[r];
+				int width = mFile.getInt(offset + 4);
+				int height = mFile.getInt(offset + 8);
+				// own view, the position of mFile belongs to play()
+				ByteBuffer data = mFile.duplicate();
+				data.position(offset + FrameRecorder.RECORD_HEADER);
+				data.get(image.luma(width, height), 0, width * height);
+				image.crop(mFile.getInt(offset + 12), mFile.getInt(offset + 16),
+						mFile.getInt(offset + 20), mFile.getInt(offset + 24),
+						mFile.getInt(offset + 28));
+			}
+		};
+	}
+
+	@Override
+	public void recycle(PreviewFrame frame) {
+		mFree.offer(frame);
+	}
+
+	/** Recorded capture time of record r in nanoseconds */
+	private long timestamp(int r) {
+		return mFile.getLong(mOffsets[r] + 40);
+	}
+}
@@ -0,0 +1,82 @@
+package com.gmail.mplackowski.cameratool;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Rect;
+
+/**
+ * {@link BatchOCR} task for an image file, e.g. a saved PreviewOCR-N.jpg,
+ * decoded with BitmapFactory and converted to luma.
+ */
+public class ImageFileTask extends BatchOCR.Task {
+
+	private static final ThreadLocal<int[]> sPixels = new ThreadLocal<int[]>();
+
+	private final File mFile;
+	private final Rect mCrop;
+
+	/** @param crop part of the image to recognize, null for all of it */
+	public ImageFileTask(File file, Rect crop) {
+		super(file.getName());
+		mFile = file;
+		mCrop = crop;
+	}
+
+	/** Tasks for the JPEG and PNG files of the directory, by name */
+	public static List<BatchOCR.Task> directory(File directory, Rect crop) {
+		File[] files = directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				String name = file.getName().toLowerCase();
+				return file.isFile() && (name.endsWith(".jpg")
+						|| name.endsWith(".jpeg") || name.endsWith(".png"));
+			}
+		});
+		List<BatchOCR.Task> tasks = new ArrayList<BatchOCR.Task>();
+		if (files == null)
+			return tasks;
+		Arrays.sort(files);
+		for (File file : files)
+			tasks.add(new ImageFileTask(file, crop));
+		return tasks;
+	}
+
+	public File file() {
+		return mFile;
+	}
+
+	@Override
+	protected void load(BatchOCR.Image image) throws IOException {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+		Bitmap bitmap = BitmapFactory.decodeFile(mFile.getPath(), options);
+		if (bitmap == null)
+			throw new IOException("Unable to decode " + mFile);
+
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+		int[] pixels = sPixels.get();
+		if (pixels == null || pixels.length < width * height) {
+			pixels = new int[width * height];
+			sPixels.set(pixels);
+		}
+		bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+		bitmap.recycle();
+
+		byte[] luma = image.luma(width, height);
+		for (int i = 0; i < width * height; i++) {
+			int c = pixels[i];
+			luma[i] = (byte) ((((c >> 16) & 0xFF) * 77 + ((c >> 8) & 0xFF) * 150
+					+ (c & 0xFF) * 29) >> 8);
+		}
+		if (mCrop != null)
+			image.crop(0, mCrop.left, mCrop.top, mCrop.right, mCrop.bottom);
+	}
+}
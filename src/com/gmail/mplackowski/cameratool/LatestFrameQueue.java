@@ -0,0 +1,77 @@
+package com.gmail.mplackowski.cameratool;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Single slot "latest frame wins" mailbox.
+ *
+ * The producer atomically swaps the pending frame with the new one and
+ * recycles the one it replaced, so the consumer always gets the newest
+ * frame and nothing piles up behind a slow recognition.
+ */
+public class LatestFrameQueue implements FrameQueue {
+
+	private final AtomicReference<PreviewFrame> mSlot = new AtomicReference<PreviewFrame>();
+	private final AtomicInteger mWaiting = new AtomicInteger();
+	private final Semaphore mSignal = new Semaphore(0);
+	private final AtomicLong mDropped = new AtomicLong();
+	private final Recycler mRecycler;
+
+	public LatestFrameQueue(Recycler recycler) {
+		mRecycler = recycler;
+	}
+
+	@Override
+	public void offer(PreviewFrame frame) {
+		PreviewFrame replaced = mSlot.getAndSet(frame);
+		if (mWaiting.get() > 0)
+			mSignal.release();
+		if (replaced != null) {
+			mDropped.incrementAndGet();
+			mRecycler.recycle(replaced);
+		}
+	}
+
+	@Override
+	public PreviewFrame take() throws InterruptedException {
+		while (true) {
+			PreviewFrame frame = mSlot.getAndSet(null);
+			if (frame != null)
+				return frame;
+
+			// announce ourselves before the second look, so an offer
+			// happening in between is guaranteed to signal
+			mWaiting.incrementAndGet();
+			try {
+				frame = mSlot.getAndSet(null);
+				if (frame != null)
+					return frame;
+				mSignal.acquire();
+			} finally {
+				mWaiting.decrementAndGet();
+			}
+		}
+	}
+
+	@Override
+	public void clear() {
+		PreviewFrame frame = mSlot.getAndSet(null);
+		if (frame != null) {
+			mDropped.incrementAndGet();
+			mRecycler.recycle(frame);
+		}
+	}
+
+	@Override
+	public int size() {
+		return mSlot.get() == null ? 0 : 1;
+	}
+
+	@Override
+	public long dropped() {
+		return mDropped.get();
+	}
+}
@@ -0,0 +1,25 @@
+package com.gmail.mplackowski.cameratool;
+
+/**
+ * Tells the {@link RateController} how busy the device is.
+ *
+ * {@link CpuLoadSignal}, {@link ThermalLoadSignal} and
+ * {@link BatteryLoadSignal} each watch one resource, a
+ * {@link MaxLoadSignal} follows whichever of them is highest.
+ *
+ * load() is called on the OCR workers after each recognition, never on
+ * the camera thread, one call at a time. It may read files.
+ */
+public interface LoadSignal {
+
+	/** Device with unlimited headroom */
+	public static final LoadSignal NONE = new LoadSignal() {
+		@Override
+		public float load() {
+			return 0;
+		}
+	};
+
+	/** @return 0 when the device is idle up to 1 when it has no headroom left */
+	public float load();
+}
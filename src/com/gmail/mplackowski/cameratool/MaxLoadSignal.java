@@ -0,0 +1,22 @@
+package com.gmail.mplackowski.cameratool;
+
+/**
+ * {@link LoadSignal} that reports the highest load of several signals, e.g.
+ * CPU, temperature and battery together.
+ */
+public class MaxLoadSignal implements LoadSignal {
+
+	private final LoadSignal[] mSignals;
+
+	public MaxLoadSignal(LoadSignal... signals) {
+		mSignals = signals.clone();
+	}
+
+	@Override
+	public float load() {
+		float load = 0;
+		for (LoadSignal signal : mSignals)
+			load = Math.max(load, signal.load());
+		return load;
+	}
+}
@@ -0,0 +1,147 @@
+package com.gmail.mplackowski.cameratool;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+
+/**
+ * Logging facade of the camera tool.
+ *
+ * Messages go to a {@link Sink}, android.util.Log on the device and
+ * System.err on a plain JVM, where android.util.Log is not available. Only
+ * the sink in use is loaded, so the frame path runs on both.
+ *
+ * LEVEL is a compile time constant, calls guarded with the V/D/I/W flags
+ * are removed by the compiler together with their string building when the
+ * level is above them:
+ *
+ *     if (OCRLog.D) OCRLog.d(TAG, "rect " + rect);
+ *
+ * For diagnostics on the frame path there is a trace mode that records
+ * numeric events into a ring buffer without formatting anything, enabled
+ * with TRACE and read with {@link #readTrace(long[])}.
+ */
+public final class OCRLog {
+
+	/** Priorities, the values of android.util.Log */
+	public static final int VERBOSE = 2;
+	public static final int DEBUG = 3;
+	public static final int INFO = 4;
+	public static final int WARN = 5;
+	public static final int ERROR = 6;
+
+	/** Lowest priority that is logged */
+	public static final int LEVEL = WARN;
+
+	public static final boolean V = LEVEL <= VERBOSE;
+	public static final boolean D = LEVEL <= DEBUG;
+	public static final boolean I = LEVEL <= INFO;
+	public static final boolean W = LEVEL <= WARN;
+
+	/** Records {@link #trace(int, long, long)} events */
+	public static final boolean TRACE = false;
+
+	/** Number of events kept, power of two */
+	public static final int TRACE_SIZE = 1024;
+	/** Longs per event: time, event, a, b */
+	public static final int TRACE_RECORD = 4;
+
+	public static final int EVENT_PREVIEW_FRAME = 1;
+	public static final int EVENT_PREVIEW_SKIPPED = 2;
+	public static final int EVENT_PICKER_RECT = 3;
+	public static final int EVENT_PICKER_MOVE = 4;
+	public static final int EVENT_PICKER_RESIZE = 5;
+
+	public interface Sink {
+		public void log(int priority, String tag, String message);
+	}
+
+	private static volatile Sink sSink = "Dalvik".equals(System.getProperty("java.vm.name"))
+			? new AndroidSink() : new ConsoleSink();
+
+	private static final long[] sTrace = new long[TRACE ? TRACE_SIZE * TRACE_RECORD : 0];
+	private static final AtomicInteger sTraceIndex = new AtomicInteger();
+
+	private OCRLog() {
+	}
+
+	/** Replaces the sink, e.g. to collect messages in a test */
+	public static void setSink(Sink sink) {
+		sSink = sink;
+	}
+
+	public static void v(String tag, String message) {
+		sSink.log(VERBOSE, tag, message);
+	}
+
+	public static void d(String tag, String message) {
+		sSink.log(DEBUG, tag, message);
+	}
+
+	public static void i(String tag, String message) {
+		sSink.log(INFO, tag, message);
+	}
+
+	public static void w(String tag, String message) {
+		sSink.log(WARN, tag, message);
+	}
+
+	public static void e(String tag, String message) {
+		sSink.log(ERROR, tag, message);
+	}
+
+	/**
+	 * Records a numeric event, a no-op unless TRACE is set.
+	 *
+	 * @param event one of the EVENT_ constants
+	 */
+	public static void trace(int event, long a, long b) {
+		if (!TRACE)
+			return;
+		int i = (sTraceIndex.getAndIncrement() & (TRACE_SIZE - 1)) * TRACE_RECORD;
+		sTrace[i] = System.nanoTime();
+		sTrace[i + 1] = event;
+		sTrace[i + 2] = a;
+		sTrace[i + 3] = b;
+	}
+
+	/** Packs two ints, e.g. coordinates, into one trace argument */
+	public static long pack(int high, int low) {
+		return ((long) high << 32) | (low & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Copies the recorded events, oldest first, as time, event, a, b
+	 * quadruples.
+	 *
+	 * @param out array of at least TRACE_SIZE * TRACE_RECORD longs
+	 * @return number of events copied
+	 */
+	public static int readTrace(long[] out) {
+		if (!TRACE)
+			return 0;
+		int end = sTraceIndex.get();
+		int count = Math.min(end, TRACE_SIZE);
+		for (int e = 0; e < count; e++) {
+			int from = ((end - count + e) & (TRACE_SIZE - 1)) * TRACE_RECORD;
+			System.arraycopy(sTrace, from, out, e * TRACE_RECORD, TRACE_RECORD);
+		}
+		return count;
+	}
+
+	private static class AndroidSink implements Sink {
+		@Override
+		public void log(int priority, String tag, String message) {
+			Log.println(priority, tag, message);
+		}
+	}
+
+	private static class ConsoleSink implements Sink {
+		private static final String LETTERS = "??VDIWE";
+
+		@Override
+		public void log(int priority, String tag, String message) {
+			System.err.println(LETTERS.charAt(priority) + "/" + tag + ": " + message);
+		}
+	}
+}
@@ -0,0 +1,520 @@
+package com.gmail.mplackowski.cameratool;
+
+import com.gmail.mplackowski.cameratool.PipelineMetrics.Stage;
+
+/**
+ * Frame to text part of the OCR path: queueing, cropping, recognition on a
+ * pool of workers and in-order result delivery.
+ *
+ * It does not touch Android classes at run time: crops are plain ints and
+ * {@link OCRLog} logs to System.err off the device. So it can be driven
+ * with synthetic NV21 frames and a {@link FakeOcrEngine} on a plain JVM.
+ * Compiling it still needs android.jar, like the rest of the library.
+ */
+public class OCRPipeline {
+
+	private static final String TAG = "OCRPipeline";
+
+	public interface Callback {
+		/** Called on the worker thread once the crop of a frame is ready */
+		public void onFrameCropped(FrameEngine crop);
+
+		/**
+		 * Called on the worker thread with the text regions found in the
+		 * crop, {@link TextRegionDetector#BOX} ints per region. The array is
+		 * reused for the next frame.
+		 */
+		public void onTextRegions(FrameEngine crop, int[] boxes, int count);
+
+		public void onTextRecognized(long sequence, String text, float accuracy);
+	}
+
+	private final OcrEngine.Factory mEngineFactory;
+	private final FrameQueue mQueue;
+	private final FrameQueue.Recycler mRecycler;
+	private final Callback mCallback;
+	private final ResultSequencer mSequencer;
+	private final ResultSequencer.Sink mOutput;
+	private final Worker[] mWorkers;
+	private final PipelineMetrics mMetrics = new PipelineMetrics();
+
+	private volatile ChangeDetector mChangeDetector;
+	private volatile SharpnessFilter mSharpnessFilter;
+	private volatile ResultFusion mFusion;
+	private volatile RateController mRateController;
+	private volatile int mRegionThreshold;
+	private volatile float mRegionDensity;
+	private volatile int mTargetXHeight;
+	private volatile Preprocessor.Binarization mBinarization = Preprocessor.Binarization.NONE;
+	private volatile TextPostProcessor mPostProcessor = TextPostProcessor.alphanumeric();
+
+	private EngineHolder mEngines;
+	private boolean mOwnsEngines;
+	private volatile boolean mShouldWork;
+	private volatile boolean mPaused;
+
+	/**
+	 * @param queue hand-off between {@link #submit(PreviewFrame)} and the workers
+	 * @param recycler receives frames once their crop has been copied out
+	 */
+	public OCRPipeline(OcrEngine.Factory engineFactory, int workers,
+			FrameQueue queue, FrameQueue.Recycler recycler, Callback callback) {
+		mEngineFactory = engineFactory;
+		mQueue = queue;
+		mRecycler = recycler;
+		mCallback = callback;
+		mOutput = new ResultSequencer.Sink() {
+			@Override
+			public void deliver(long sequence, String text, float accuracy) {
+				if (PipelineMetrics.ENABLED)
+					mMetrics.frameOut();
+				mCallback.onTextRecognized(sequence, text, accuracy);
+			}
+		};
+		mSequencer = new ResultSequencer(workers, new ResultSequencer.Sink() {
+			@Override
+			public void deliver(long sequence, String text, float accuracy) {
+				ResultFusion fusion = mFusion;
+				if (fusion != null)
+					fusion.deliver(sequence, text, accuracy);
+				else
+					mOutput.deliver(sequence, text, accuracy);
+			}
+		});
+		mWorkers = new Worker[workers];
+		mRateController = new RateController(RateController.Policy.MAX_THROUGHPUT,
+				CameraInterface.OCR_FPS, workers, LoadSignal.NONE);
+	}
+
+	/** Starts with engines of its own, they are ended on {@link #stop()} */
+	public void start(String dataPath, String language) {
+		if (mShouldWork)
+			return;
+		EngineHolder engines = new EngineHolder(mEngineFactory, dataPath, language);
+		engines.warmUp(mWorkers.length);
+		start(engines);
+		mOwnsEngines = true;
+	}
+
+	/**
+	 * Starts with engines borrowed from the holder, they go back to it
+	 * still initialized when the pipeline stops.
+	 */
+	public void start(EngineHolder engines) {
+		if (mShouldWork)
+			return;
+		mEngines = engines;
+		mOwnsEngines = false;
+		mPaused = false;
+		reset();
+		mShouldWork = true;
+		engines.warmUp(mWorkers.length);
+		for (int i = 0; i < mWorkers.length; i++) {
+			mWorkers[i] = new Worker(i);
+			mWorkers[i].start();
+		}
+	}
+
+	/**
+	 * Stops the workers, waiting ones are interrupted. A worker in the middle
+	 * of a recognition finishes it first, see {@link #awaitTermination(long)}.
+	 */
+	public void stop() {
+		if (!mShouldWork)
+			return;
+		mShouldWork = false;
+		for (Worker worker : mWorkers)
+			if (worker != null)
+				worker.interrupt();
+		mQueue.clear();
+		if (mOwnsEngines)
+			mEngines.shutdown();
+	}
+
+	/** @return true if all workers have exited within the timeout */
+	public boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		for (Worker worker : mWorkers) {
+			if (worker == null)
+				continue;
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0)
+				return false;
+			worker.join(remaining);
+			if (worker.isAlive())
+				return false;
+		}
+		return true;
+	}
+
+	public boolean isRunning() {
+		return mShouldWork;
+	}
+
+	/**
+	 * Stops taking frames but keeps the workers and their engines, frames
+	 * waiting are dropped.
+	 */
+	public void pause() {
+		mPaused = true;
+		mQueue.clear();
+	}
+
+	/** Takes frames again, what was learned before the pause is forgotten */
+	public void resume() {
+		reset();
+		mPaused = false;
+	}
+
+	/**
+	 * Forgets the cached result, the sharpness history and the fused
+	 * results, call when the crop changes so nothing of the former crop is
+	 * reported for the new one.
+	 */
+	public void reset() {
+		ChangeDetector detector = mChangeDetector;
+		if (detector != null)
+			detector.reset();
+		SharpnessFilter sharpness = mSharpnessFilter;
+		if (sharpness != null)
+			sharpness.reset();
+		ResultFusion fusion = mFusion;
+		if (fusion != null)
+			fusion.reset();
+	}
+
+	/** Paused pipelines still run but do not want frames */
+	public boolean isPaused() {
+		return mPaused;
+	}
+
+	public EngineHolder engines() {
+		return mEngines;
+	}
+
+	/** Hands a frame with its geometry set over to the workers */
+	public void submit(PreviewFrame frame) {
+		if (mPaused) {
+			mRecycler.recycle(frame);
+			return;
+		}
+		if (PipelineMetrics.ENABLED)
+			mMetrics.frameIn();
+		mQueue.offer(frame);
+	}
+
+	public PipelineMetrics metrics() {
+		return mMetrics;
+	}
+
+	/** Skips recognition of crops that did not change, null to disable */
+	public OCRPipeline changeDetector(ChangeDetector detector) {
+		mChangeDetector = detector;
+		return this;
+	}
+
+	public ChangeDetector changeDetector() {
+		return mChangeDetector;
+	}
+
+	/** Drops blurred crops before recognition, null to disable */
+	public OCRPipeline sharpnessFilter(SharpnessFilter filter) {
+		mSharpnessFilter = filter;
+		return this;
+	}
+
+	public SharpnessFilter sharpnessFilter() {
+		return mSharpnessFilter;
+	}
+
+	/**
+	 * Votes over the results of the last frames and reports only changes of
+	 * the consensus, 1 or less reports every result as it is.
+	 */
+	public OCRPipeline resultFusion(int frames) {
+		mFusion = frames > 1 ? new ResultFusion(frames, mOutput) : null;
+		return this;
+	}
+
+	/**
+	 * Recognizes only the text lines found by a {@link TextRegionDetector}
+	 * instead of the whole crop, an edgeThreshold of 0 disables it. Crops
+	 * where it finds none are recognized whole.
+	 */
+	public OCRPipeline textRegions(int edgeThreshold, float minDensity) {
+		mRegionDensity = minDensity;
+		mRegionThreshold = edgeThreshold;
+		return this;
+	}
+
+	/**
+	 * Downscales crops to the target text x-height, 0 keeps the size, and
+	 * binarizes them before recognition, see {@link Preprocessor}.
+	 */
+	public OCRPipeline preprocessing(int targetXHeight,
+			Preprocessor.Binarization binarization) {
+		mTargetXHeight = targetXHeight;
+		mBinarization = binarization;
+		return this;
+	}
+
+	/** Cleans up and validates recognized text, see {@link TextPostProcessor} */
+	public OCRPipeline postProcessor(TextPostProcessor postProcessor) {
+		mPostProcessor = postProcessor;
+		return this;
+	}
+
+	/** Collects recognition latency and decides which frames to process */
+	public OCRPipeline rateController(RateController controller) {
+		mRateController = controller;
+		return this;
+	}
+
+	public RateController rateController() {
+		return mRateController;
+	}
+
+	public FrameQueue queue() {
+		return mQueue;
+	}
+
+	public int workers() {
+		return mWorkers.length;
+	}
+
+	/**
+	 * Takes frames from the shared queue and recognizes them with its own
+	 * engine instance, results go through the sequencer.
+	 */
+	private class Worker extends Thread {
+
+		private final FrameEngine mFrameEngine = new FrameEngine();
+		private final int[] mSignature = new int[ChangeDetector.SIGNATURE_SIZE];
+		private final int[] mBoxes = new int[TextRegionDetector.MAX_REGIONS
+				* TextRegionDetector.BOX];
+		private final StringBuilder mText = new StringBuilder();
+		private TextRegionDetector mRegionDetector;
+		private Preprocessor mPreprocessor;
+		private long mPreprocessNanos;
+		private byte[] mRegion = new byte[0];
+		/** Allocations reported to the metrics, and of replaced helpers */
+		private long mReportedBytes;
+		private long mRetiredBytes;
+		private float mAccuracy;
+		private OcrEngine mEngine;
+
+		Worker(int index) {
+			super("OCRWorker-" + index);
+		}
+
+		@Override
+		public void run() {
+			try {
+				mEngine = mEngines.acquire();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (mEngine == null) {
+				OCRLog.e(TAG, getName() + " has no OCR engine: " + mEngines.error());
+				return;
+			}
+			try {
+				work();
+			} finally {
+				mEngines.release(mEngine);
+				mEngine = null;
+			}
+		}
+
+		private void work() {
+			while (mShouldWork) {
+				PreviewFrame frame = null;
+				try {
+					frame = mQueue.take();
+					long sequence = frame.sequence();
+					long time = PipelineMetrics.ENABLED ? System.nanoTime() : 0;
+					if (PipelineMetrics.ENABLED)
+						mMetrics.record(Stage.QUEUE_WAIT, time - frame.timestamp());
+					
+					boolean cropped = mFrameEngine.crop(frame.data(), frame.geometry());
+					time = lap(Stage.CROP, time);
+					
+					// the crop is a copy, the preview buffer can go back to the camera
+					mRecycler.recycle(frame);
+					frame = null;
+					if (!cropped || !mSequencer.begin(sequence))
+						continue;
+					
+					try {
+						mCallback.onFrameCropped(mFrameEngine);
+						time = PipelineMetrics.ENABLED ? System.nanoTime() : 0;
+						
+						SharpnessFilter sharpness = mSharpnessFilter;
+						if (sharpness != null && !sharpness.accept(SharpnessFilter.measure(
+								mFrameEngine.luma(), mFrameEngine.width(), mFrameEngine.height())))
+							continue;
+						
+						ChangeDetector detector = mChangeDetector;
+						if (detector != null) {
+							ChangeDetector.signature(mFrameEngine.luma(),
+									mFrameEngine.width(), mFrameEngine.height(), mSignature);
+							ChangeDetector.CachedResult cached = detector.unchanged(
+									mSignature, mFrameEngine.width(), mFrameEngine.height());
+							if (cached != null) {
+								time = lap(Stage.FILTER, time);
+								mSequencer.complete(sequence, cached.text, cached.accuracy);
+								lap(Stage.DISPATCH, time);
+								continue;
+							}
+						}
+						time = lap(Stage.FILTER, time);
+						
+						int regions = -1;
+						TextRegionDetector regionDetector = regionDetector();
+						if (regionDetector != null) {
+							regions = regionDetector.detect(mFrameEngine.luma(),
+									mFrameEngine.width(), mFrameEngine.height(), mBoxes);
+							mCallback.onTextRegions(mFrameEngine, mBoxes, regions);
+							lap(Stage.DETECTION, time);
+						}
+						
+						long start = System.nanoTime();
+						mPreprocessNanos = 0;
+						// no region found is a miss of the heuristic, not proof of no
+						// text, e.g. low contrast or a word filling the crop
+						String recognizedText = regions <= 0 ? recognize(mFrameEngine.luma(),
+								mFrameEngine.width(), mFrameEngine.height())
+								: recognizeRegions(regions);
+						float accuracy = mAccuracy;
+						long latency = System.nanoTime() - start;
+						mRateController.recordLatency(latency);
+						if (PipelineMetrics.ENABLED) {
+							mMetrics.record(Stage.PREPROCESS, mPreprocessNanos);
+							mMetrics.record(Stage.RECOGNITION, latency - mPreprocessNanos);
+							time = System.nanoTime();
+						}
+						
+						recognizedText = mPostProcessor.process(recognizedText);
+						time = lap(Stage.TEXT_CLEANUP, time);
+						
+						if (detector != null)
+							detector.update(mSignature, mFrameEngine.width(),
+									mFrameEngine.height(), recognizedText, accuracy);
+						
+						mSequencer.complete(sequence, recognizedText, accuracy);
+						lap(Stage.DISPATCH, time);
+					} finally {
+						if (PipelineMetrics.ENABLED)
+							reportAllocations();
+						// no-op when the result has been completed
+						mSequencer.cancel(sequence);
+					}
+
+				} catch (InterruptedException e) {
+					if (OCRLog.D) OCRLog.d(TAG, getName() + " InterruptedException "+e);
+				} finally {
+					if (frame != null)
+						mRecycler.recycle(frame);
+				}
+			}
+		}
+
+		private TextRegionDetector regionDetector() {
+			int threshold = mRegionThreshold;
+			if (threshold <= 0)
+				return null;
+			if (mRegionDetector == null)
+				mRegionDetector = new TextRegionDetector(threshold, mRegionDensity);
+			return mRegionDetector;
+		}
+
+		private Preprocessor preprocessor() {
+			int xHeight = mTargetXHeight;
+			Preprocessor.Binarization binarization = mBinarization;
+			if (xHeight <= 0 && binarization == Preprocessor.Binarization.NONE)
+				return null;
+			if (mPreprocessor == null || !mPreprocessor.hasSettings(xHeight, binarization)) {
+				if (mPreprocessor != null)
+					mRetiredBytes += mPreprocessor.allocatedBytes();
+				mPreprocessor = new Preprocessor(xHeight, binarization);
+			}
+			return mPreprocessor;
+		}
+
+		/**
+		 * Preprocesses the image and runs the engine on it, leaves its
+		 * confidence in mAccuracy.
+		 */
+		private String recognize(byte[] luma, int width, int height) {
+			Preprocessor preprocessor = preprocessor();
+			if (preprocessor != null) {
+				long start = System.nanoTime();
+				preprocessor.process(luma, width, height);
+				luma = preprocessor.output();
+				width = preprocessor.width();
+				height = preprocessor.height();
+				mPreprocessNanos += System.nanoTime() - start;
+			}
+			mEngine.clear();
+			mEngine.setImage(luma, width, height);
+			String text = mEngine.getText();
+			mAccuracy = mEngine.meanConfidence();
+			return text;
+		}
+
+		/**
+		 * Recognizes the regions in mBoxes one after another, the accuracy is
+		 * the mean weighted by region area.
+		 */
+		private String recognizeRegions(int count) {
+			mText.setLength(0);
+			float accuracy = 0;
+			long area = 0;
+			byte[] luma = mFrameEngine.luma();
+			int width = mFrameEngine.width();
+			for (int r = 0; r < count; r++) {
+				int left = mBoxes[r * TextRegionDetector.BOX];
+				int top = mBoxes[r * TextRegionDetector.BOX + 1];
+				int w = mBoxes[r * TextRegionDetector.BOX + 2] - left;
+				int h = mBoxes[r * TextRegionDetector.BOX + 3] - top;
+				if (mRegion.length < w * h) {
+					mRegion = new byte[w * h];
+					mRetiredBytes += w * h;
+				}
+				for (int y = 0; y < h; y++)
+					System.arraycopy(luma, (top + y) * width + left, mRegion, y * w, w);
+
+				String text = recognize(mRegion, w, h);
+				if (mText.length() > 0)
+					mText.append('\n');
+				mText.append(text);
+				accuracy += mAccuracy * w * h;
+				area += w * h;
+			}
+			mAccuracy = area == 0 ? 0 : accuracy / area;
+			return mText.toString();
+		}
+
+		/** Adds what the buffers of this worker grew by since the last frame */
+		private void reportAllocations() {
+			long total = mRetiredBytes + mFrameEngine.allocatedBytes();
+			if (mPreprocessor != null)
+				total += mPreprocessor.allocatedBytes();
+			if (mRegionDetector != null)
+				total += mRegionDetector.allocatedBytes();
+			if (total != mReportedBytes) {
+				mMetrics.allocated(total - mReportedBytes);
+				mReportedBytes = total;
+			}
+		}
+
+		/** Records the time since start for the stage and returns now */
+		private long lap(Stage stage, long start) {
+			if (!PipelineMetrics.ENABLED)
+				return 0;
+			long now = System.nanoTime();
+			mMetrics.record(stage, now - start);
+			return now;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package com.gmail.mplackowski.cameratool;
+
+import android.graphics.Rect;
+
+/**
+ * Recognized text with the frame it came from, see
+ * {@link CameraInterface.OCRResultListener}.
+ *
+ * Instances are pooled like android.os.Message, a result is only valid
+ * during the listener call. Use {@link #copy()} to keep it.
+ */
+public class OCRResult {
+
+	private static final int MAX_POOL_SIZE = 4;
+	private static final Object sPoolLock = new Object();
+	private static OCRResult sPool;
+	private static int sPoolSize;
+
+	private OCRResult mNext;
+
+	private String mText;
+	private float mAccuracy;
+	private long mFrameId;
+	private long mCaptureTime;
+	private long mResultTime;
+	private final Rect mCrop = new Rect();
+
+	private OCRResult() {
+	}
+
+	/** @return pooled instance, or a new one */
+	static OCRResult obtain() {
+		synchronized (sPoolLock) {
+			if (sPool != null) {
+				OCRResult result = sPool;
+				sPool = result.mNext;
+				result.mNext = null;
+				sPoolSize--;
+				return result;
+			}
+		}
+		return new OCRResult();
+	}
+
+	/** Returns the instance to the pool, it must not be used anymore */
+	void recycle() {
+		mText = null;
+		synchronized (sPoolLock) {
+			if (sPoolSize < MAX_POOL_SIZE) {
+				mNext = sPool;
+				sPool = this;
+				sPoolSize++;
+			}
+		}
+	}
+
+	void set(String text, float accuracy, long frameId, long captureTime,
+			long resultTime, int left, int top, int right, int bottom) {
+		mText = text;
+		mAccuracy = accuracy;
+		mFrameId = frameId;
+		mCaptureTime = captureTime;
+		mResultTime = resultTime;
+		mCrop.set(left, top, right, bottom);
+	}
+
+	/** Unpooled copy that can be kept after the listener call */
+	public OCRResult copy() {
+		OCRResult copy = new OCRResult();
+		copy.set(mText, mAccuracy, mFrameId, mCaptureTime, mResultTime,
+				mCrop.left, mCrop.top, mCrop.right, mCrop.bottom);
+		return copy;
+	}
+
+	public String getText() {
+		return mText;
+	}
+
+	public float getAccuracy() {
+		return mAccuracy;
+	}
+
+	/** Sequence number of the preview frame the text was read from */
+	public long getFrameId() {
+		return mFrameId;
+	}
+
+	/** Capture time of the frame in System.nanoTime() units */
+	public long getCaptureTime() {
+		return mCaptureTime;
+	}
+
+	/** Time the result was ready, in System.nanoTime() units */
+	public long getResultTime() {
+		return mResultTime;
+	}
+
+	public long getLatencyNanos() {
+		return mResultTime - mCaptureTime;
+	}
+
+	/** Crop of the frame in rotated preview coordinates */
+	public Rect getCrop() {
+		return mCrop;
+	}
+
+	@Override
+	public String toString() {
+		return "OCRResult[" + mFrameId + " \"" + mText + "\" " + mAccuracy + "]";
+	}
+}
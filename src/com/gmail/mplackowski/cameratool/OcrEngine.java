@@ -0,0 +1,30 @@
+package com.gmail.mplackowski.cameratool;
+
+/**
+ * Text recognizer used by the OCR workers. Every worker creates its own
+ * instance through a {@link Factory}, so implementations do not need to be
+ * thread safe.
+ */
+public interface OcrEngine {
+
+	interface Factory {
+		public OcrEngine create();
+	}
+
+	/** @return false if the engine could not load the language data */
+	public boolean init(String dataPath, String language);
+
+	/** Sets 8-bit grayscale image, rows are width bytes long */
+	public void setImage(byte[] luma, int width, int height);
+
+	public String getText();
+
+	/** Mean confidence of the last recognition, 0-100 */
+	public float meanConfidence();
+
+	/** Frees the results of the last recognition */
+	public void clear();
+
+	/** Frees the engine, it can not be used afterwards */
+	public void end();
+}
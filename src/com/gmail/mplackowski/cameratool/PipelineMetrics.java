@@ -0,0 +1,98 @@
+package com.gmail.mplackowski.cameratool;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Live per-stage latency histograms and flow counters of the OCR path.
+ *
+ * Every call site is guarded with {@link #ENABLED}, a compile time
+ * constant, so with it set to false the timing calls and the recording
+ * are removed by the compiler.
+ */
+public class PipelineMetrics {
+
+	public static final boolean ENABLED = true;
+
+	public static enum Stage {
+		/** From capture until a worker takes the frame */
+		QUEUE_WAIT,
+		/** Crop and rotation of the luma plane */
+		CROP,
+		/** Luma to Bitmap conversion for the crop listener */
+		CONVERSION,
+		/** Sharpness and change checks */
+		FILTER,
+		/** Text region detection */
+		DETECTION,
+		/** Downscale and binarization */
+		PREPROCESS,
+		/** OCR engine */
+		RECOGNITION,
+		/** Text post-processing */
+		TEXT_CLEANUP,
+		/** Ordering, fusion and hand-off to the main thread */
+		DISPATCH
+	};
+
+	static final Stage[] STAGES = Stage.values();
+
+	/** Histogram bucket i holds durations in [2^(i-1), 2^i) ns */
+	public static final int BUCKETS = 40;
+
+	private final AtomicLongArray mHistograms = new AtomicLongArray(STAGES.length * BUCKETS);
+	private final AtomicLongArray mCounts = new AtomicLongArray(STAGES.length);
+	private final AtomicLongArray mTotals = new AtomicLongArray(STAGES.length);
+
+	private final AtomicLong mFramesIn = new AtomicLong();
+	private final AtomicLong mFramesOut = new AtomicLong();
+	private final AtomicLong mAllocatedBytes = new AtomicLong();
+
+	public void record(Stage stage, long nanos) {
+		int s = stage.ordinal();
+		mHistograms.incrementAndGet(s * BUCKETS + bucket(nanos));
+		mCounts.incrementAndGet(s);
+		mTotals.addAndGet(s, nanos);
+	}
+
+	/** Frame accepted from the camera */
+	public void frameIn() {
+		mFramesIn.incrementAndGet();
+	}
+
+	/** Result handed to the listener */
+	public void frameOut() {
+		mFramesOut.incrementAndGet();
+	}
+
+	/**
+	 * Memory allocated on the frame path by the workers: crop, region and
+	 * preprocessing buffers growing, and the pixels of the crop bitmaps.
+	 * The preview buffer and bitmap pools count their own.
+	 */
+	public void allocated(long bytes) {
+		mAllocatedBytes.addAndGet(bytes);
+	}
+
+	void fill(PipelineStats stats) {
+		int stages = STAGES.length;
+		stats.mStageHistograms = new long[stages][BUCKETS];
+		stats.mStageCounts = new long[stages];
+		stats.mStageTotals = new long[stages];
+		for (int s = 0; s < stages; s++) {
+			stats.mStageCounts[s] = mCounts.get(s);
+			stats.mStageTotals[s] = mTotals.get(s);
+			for (int b = 0; b < BUCKETS; b++)
+				stats.mStageHistograms[s][b] = mHistograms.get(s * BUCKETS + b);
+		}
+		stats.mFramesIn = mFramesIn.get();
+		stats.mFramesOut = mFramesOut.get();
+		stats.mAllocatedBytes += mAllocatedBytes.get();
+	}
+
+	static int bucket(long nanos) {
+		if (nanos < 1)
+			return 0;
+		return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+	}
+}
@@ -0,0 +1,207 @@
+package com.gmail.mplackowski.cameratool;
+
+/**
+ * Snapshot of the preview/OCR pipeline counters and stage latencies, see
+ * {@link CameraTool#metrics()}.
+ */
+public class PipelineStats {
+
+	int mBufferPoolSize;
+	int mBuffersAvailable;
+	long mBufferHits;
+	long mBufferMisses;
+	long mDroppedFrames;
+	long mUnchangedFrames;
+	long mBlurredFrames;
+	long mSkippedFrames;
+	long mLatencyNanos;
+	long mIntervalNanos;
+	float mSharpnessThreshold;
+	long[] mSharpnessHistogram = new long[0];
+
+	long mFramesIn;
+	long mFramesOut;
+	int mQueueDepth;
+	long mAllocatedBytes;
+	long mArchivedFrames;
+	long mArchiveDropped;
+	int mEnginesReady;
+	long mEngineStartupNanos;
+	long mEngineInitNanos;
+	String mEngineError;
+	long[][] mStageHistograms = new long[PipelineMetrics.STAGES.length][PipelineMetrics.BUCKETS];
+	long[] mStageCounts = new long[PipelineMetrics.STAGES.length];
+	long[] mStageTotals = new long[PipelineMetrics.STAGES.length];
+
+	PipelineStats() {
+	}
+
+	/** Number of preview buffers kept in circulation */
+	public int getBufferPoolSize() {
+		return mBufferPoolSize;
+	}
+
+	/** Number of preview buffers currently idle in the pool */
+	public int getBuffersAvailable() {
+		return mBuffersAvailable;
+	}
+
+	/** Buffer requests served from the pool */
+	public long getBufferHits() {
+		return mBufferHits;
+	}
+
+	/** Buffer requests that needed a new allocation */
+	public long getBufferMisses() {
+		return mBufferMisses;
+	}
+
+	/** Frames replaced or flushed before the OCR worker took them */
+	public long getDroppedFrames() {
+		return mDroppedFrames;
+	}
+
+	/** Frames not recognized because the crop did not change */
+	public long getUnchangedFrames() {
+		return mUnchangedFrames;
+	}
+
+	/** Frames the rate controller gave back to the camera unprocessed */
+	public long getSkippedFrames() {
+		return mSkippedFrames;
+	}
+
+	/** Average recognition time in nanoseconds */
+	public long getLatencyNanos() {
+		return mLatencyNanos;
+	}
+
+	/** Current target interval between processed frames in nanoseconds */
+	public long getIntervalNanos() {
+		return mIntervalNanos;
+	}
+
+	/** Frames rejected by the sharpness filter */
+	public long getBlurredFrames() {
+		return mBlurredFrames;
+	}
+
+	/** Current adaptive sharpness threshold */
+	public float getSharpnessThreshold() {
+		return mSharpnessThreshold;
+	}
+
+	/** Sharpness of all measured frames, see {@link SharpnessFilter#histogram()} */
+	public long[] getSharpnessHistogram() {
+		return mSharpnessHistogram;
+	}
+
+	/** Frames accepted from the camera for OCR */
+	public long getFramesIn() {
+		return mFramesIn;
+	}
+
+	/** Results handed to the OCR listener */
+	public long getFramesOut() {
+		return mFramesOut;
+	}
+
+	/** Frames waiting for a worker when the snapshot was taken */
+	public int getQueueDepth() {
+		return mQueueDepth;
+	}
+
+	/**
+	 * Bytes allocated on the frame path: new preview buffers and bitmaps
+	 * from the pools and the working buffers the workers grew
+	 */
+	public long getAllocatedBytes() {
+		return mAllocatedBytes;
+	}
+
+	/** Crops saved by the archive writer */
+	public long getArchivedFrames() {
+		return mArchivedFrames;
+	}
+
+	/** Crops the archive writer dropped because it fell behind */
+	public long getArchiveDropped() {
+		return mArchiveDropped;
+	}
+
+	/** OCR engines initialized and kept warm */
+	public int getEnginesReady() {
+		return mEnginesReady;
+	}
+
+	/** Time from the engine warm up until the first engine could recognize */
+	public long getEngineStartupNanos() {
+		return mEngineStartupNanos;
+	}
+
+	/** Time spent initializing all engines */
+	public long getEngineInitNanos() {
+		return mEngineInitNanos;
+	}
+
+	/** Why the engines could not be initialized, null if nothing failed */
+	public String getEngineError() {
+		return mEngineError;
+	}
+
+	/** Number of times the stage ran */
+	public long getStageCount(PipelineMetrics.Stage stage) {
+		return mStageCounts[stage.ordinal()];
+	}
+
+	/** Mean duration of the stage in nanoseconds, 0 if it never ran */
+	public long getStageMeanNanos(PipelineMetrics.Stage stage) {
+		long count = mStageCounts[stage.ordinal()];
+		return count == 0 ? 0 : mStageTotals[stage.ordinal()] / count;
+	}
+
+	/**
+	 * Latency histogram of the stage, bucket i counts durations in
+	 * [2^(i-1), 2^i) nanoseconds.
+	 */
+	public long[] getStageHistogram(PipelineMetrics.Stage stage) {
+		return mStageHistograms[stage.ordinal()];
+	}
+
+	/**
+	 * Upper bound of the histogram bucket holding the given percentile.
+	 *
+	 * @param percentile 0-100
+	 */
+	public long getStagePercentileNanos(PipelineMetrics.Stage stage, float percentile) {
+		long[] histogram = mStageHistograms[stage.ordinal()];
+		long count = mStageCounts[stage.ordinal()];
+		if (count == 0)
+			return 0;
+		long rank = (long) Math.ceil(count * percentile / 100.0);
+		long seen = 0;
+		for (int b = 0; b < histogram.length; b++) {
+			seen += histogram[b];
+			if (seen >= rank)
+				return 1L << b;
+		}
+		return 1L << (histogram.length - 1);
+	}
+
+	@Override
+	public String toString() {
+		return "PipelineStats [in=" + mFramesIn
+				+ ", out=" + mFramesOut
+				+ ", queue=" + mQueueDepth
+				+ ", pool=" + mBufferPoolSize
+				+ ", available=" + mBuffersAvailable
+				+ ", hits=" + mBufferHits
+				+ ", misses=" + mBufferMisses
+				+ ", dropped=" + mDroppedFrames
+				+ ", skipped=" + mSkippedFrames
+				+ ", latencyNanos=" + mLatencyNanos
+				+ ", unchanged=" + mUnchangedFrames
+				+ ", blurred=" + mBlurredFrames
+				+ ", sharpnessThreshold=" + mSharpnessThreshold + "]";
+	}
+}
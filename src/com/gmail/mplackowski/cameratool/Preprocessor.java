@@ -0,0 +1,326 @@
+package com.gmail.mplackowski.cameratool;
+
+/**
+ * Prepares a luma crop for the OCR engine: downscales it so the text
+ * x-height is close to a target and binarizes it to 0/255.
+ *
+ * The x-height is estimated from the row profile of horizontal edges, the
+ * core rows of a text line are the densest ones. Crops are only ever
+ * scaled down, by area averaging. Both the downscale and the Sauvola
+ * thresholds use integral images, so every step is linear in the pixels.
+ *
+ * Arrays are reused between frames, an instance must only be used by one
+ * thread.
+ */
+public class Preprocessor {
+
+	public static enum Binarization {
+		/** Keep gray levels */
+		NONE,
+		/** One global threshold from the histogram */
+		OTSU,
+		/** Local threshold from mean and deviation around each pixel */
+		SAUVOLA
+	};
+
+	/** Luma difference between neighbours that counts as an edge */
+	private static final int EDGE_THRESHOLD = 24;
+	private static final float SAUVOLA_K = 0.34f;
+	private static final float SAUVOLA_R = 128f;
+
+	private final int mTargetXHeight;
+	private final Binarization mBinarization;
+
+	private byte[] mOutput = new byte[0];
+	private int mWidth;
+	private int mHeight;
+
+	private int[] mRows = new int[0];
+	private int[] mSum = new int[0];
+	private int[] mSquares = new int[0];
+	private final int[] mHistogram = new int[256];
+	private long mAllocatedBytes;
+
+	/**
+	 * @param targetXHeight x-height in pixels to scale text down to, 0 to
+	 *  keep the size
+	 */
+	public Preprocessor(int targetXHeight, Binarization binarization) {
+		mTargetXHeight = targetXHeight;
+		mBinarization = binarization;
+	}
+
+	/** Result in {@link #output()}, {@link #width()} and {@link #height()} */
+	public void process(byte[] luma, int width, int height) {
+		// 1. Downscale to the target x-height
+		float scale = 1;
+		if (mTargetXHeight > 0) {
+			int xHeight = estimateXHeight(luma, width, height);
+			if (xHeight > mTargetXHeight)
+				scale = (float) mTargetXHeight / xHeight;
+		}
+		if (scale < 1) {
+			downscale(luma, width, height, Math.max(1, Math.round(width * scale)),
+					Math.max(1, Math.round(height * scale)));
+		} else {
+			resize(width, height);
+			System.arraycopy(luma, 0, mOutput, 0, width * height);
+		}
+
+		// 2. Binarize in place
+		switch (mBinarization) {
+		case OTSU:
+			threshold(otsu(mOutput, mWidth * mHeight));
+			break;
+		case SAUVOLA:
+			sauvola(Math.max(7, (mTargetXHeight > 0 ? mTargetXHeight : 16) * 2 + 1));
+			break;
+		case NONE:
+			break;
+		}
+	}
+
+	public boolean hasSettings(int targetXHeight, Binarization binarization) {
+		return mTargetXHeight == targetXHeight && mBinarization == binarization;
+	}
+
+	public byte[] output() {
+		return mOutput;
+	}
+
+	public int width() {
+		return mWidth;
+	}
+
+	public int height() {
+		return mHeight;
+	}
+
+	/** Bytes allocated for working buffers so far */
+	public long allocatedBytes() {
+		return mAllocatedBytes;
+	}
+
+	/**
+	 * Median height of the runs of dense rows, the core of the text lines.
+	 *
+	 * @return estimated x-height, 0 when no text rows were found
+	 */
+	int estimateXHeight(byte[] luma, int width, int height) {
+		if (mRows.length < height) {
+			mRows = new int[height];
+			mAllocatedBytes += height * 4;
+		}
+		int[] rows = mRows;
+		int max = 0;
+		for (int y = 0; y < height; y++) {
+			int i = y * width;
+			int end = i + width - 1;
+			int edges = 0;
+			int previous = luma[i] & 0xFF;
+			while (i < end) {
+				int current = luma[++i] & 0xFF;
+				int difference = current - previous;
+				// branch free: 1 when |difference| > threshold
+				edges += (EDGE_THRESHOLD - ((difference ^ (difference >> 31)) - (difference >> 31))) >>> 31;
+				previous = current;
+			}
+			rows[y] = edges;
+			max = Math.max(max, edges);
+		}
+		if (max == 0)
+			return 0;
+
+		// run lengths are written over the profile, it is not needed anymore
+		int runs = 0;
+		int run = 0;
+		for (int y = 0; y <= height; y++) {
+			if (y < height && rows[y] * 2 >= max) {
+				run++;
+			} else if (run > 0) {
+				rows[runs++] = run;
+				run = 0;
+			}
+		}
+		// insertion sort, there are only a few lines
+		for (int i = 1; i < runs; i++) {
+			int value = rows[i];
+			int j = i - 1;
+			while (j >= 0 && rows[j] > value) {
+				rows[j + 1] = rows[j];
+				j--;
+			}
+			rows[j + 1] = value;
+		}
+		return rows[runs / 2];
+	}
+
+	/** Area average into mOutput through an integral image of the source */
+	private void downscale(byte[] luma, int width, int height, int outWidth,
+			int outHeight) {
+		integral(luma, width, height, false);
+		resize(outWidth, outHeight);
+		int stride = width + 1;
+		int[] sum = mSum;
+		int o = 0;
+		for (int y = 0; y < outHeight; y++) {
+			int y0 = y * height / outHeight;
+			int y1 = Math.max(y0 + 1, (y + 1) * height / outHeight);
+			for (int x = 0; x < outWidth; x++) {
+				int x0 = x * width / outWidth;
+				int x1 = Math.max(x0 + 1, (x + 1) * width / outWidth);
+				int total = sum[y1 * stride + x1] - sum[y0 * stride + x1]
+						- sum[y1 * stride + x0] + sum[y0 * stride + x0];
+				mOutput[o++] = (byte) (total / ((x1 - x0) * (y1 - y0)));
+			}
+		}
+	}
+
+	/** Otsu threshold of the first size pixels */
+	static int otsu(byte[] luma, int size, int[] histogram) {
+		for (int i = 0; i < 256; i++)
+			histogram[i] = 0;
+		long total = 0;
+		for (int i = 0; i < size; i++) {
+			int value = luma[i] & 0xFF;
+			histogram[value]++;
+			total += value;
+		}
+
+		long backgroundSum = 0;
+		int backgroundCount = 0;
+		double bestVariance = -1;
+		int best = 0;
+		for (int t = 0; t < 256; t++) {
+			backgroundCount += histogram[t];
+			if (backgroundCount == 0)
+				continue;
+			int foregroundCount = size - backgroundCount;
+			if (foregroundCount == 0)
+				break;
+			backgroundSum += (long) t * histogram[t];
+			double backgroundMean = (double) backgroundSum / backgroundCount;
+			double foregroundMean = (double) (total - backgroundSum) / foregroundCount;
+			double difference = backgroundMean - foregroundMean;
+			double variance = (double) backgroundCount * foregroundCount
+					* difference * difference;
+			if (variance > bestVariance) {
+				bestVariance = variance;
+				best = t;
+			}
+		}
+		return best;
+	}
+
+	private int otsu(byte[] luma, int size) {
+		return otsu(luma, size, mHistogram);
+	}
+
+	private void threshold(int threshold) {
+		byte[] out = mOutput;
+		for (int i = 0; i < mWidth * mHeight; i++)
+			out[i] = (out[i] & 0xFF) <= threshold ? 0 : (byte) 255;
+	}
+
+	/**
+	 * Sauvola: threshold = mean * (1 + k * (deviation / R - 1)) over a
+	 * window x window neighbourhood, clipped at the borders. The test is
+	 * done on the variance to avoid a square root and a division per pixel.
+	 */
+	private void sauvola(int window) {
+		int width = mWidth;
+		int height = mHeight;
+		integral(mOutput, width, height, true);
+		int stride = width + 1;
+		int[] sum = mSum;
+		int[] squares = mSquares;
+		int half = window / 2;
+		byte[] out = mOutput;
+		float scale = SAUVOLA_R / SAUVOLA_K;
+		int lastCount = 0;
+		float inverse = 0;
+
+		for (int y = 0; y < height; y++) {
+			int top = Math.max(0, y - half) * stride;
+			int bottom = Math.min(height, y + half + 1) * stride;
+			int rows = (bottom - top) / stride;
+			int i = y * width;
+			for (int x = 0; x < width; x++, i++) {
+				int x0 = x > half ? x - half : 0;
+				int x1 = x + half + 1 < width ? x + half + 1 : width;
+				int count = (x1 - x0) * rows;
+				if (count != lastCount) {
+					lastCount = count;
+					inverse = 1f / count;
+				}
+				float mean = (sum[bottom + x1] - sum[top + x1] - sum[bottom + x0]
+						+ sum[top + x0]) * inverse;
+				float variance = (squares[bottom + x1] - squares[top + x1]
+						- squares[bottom + x0] + squares[top + x0]) * inverse
+						- mean * mean;
+
+				// value <= threshold  <=>  (value - mean * (1 - k)) * R / k <= deviation * mean
+				float t = ((out[i] & 0xFF) - mean * (1 - SAUVOLA_K)) * scale;
+				out[i] = t <= 0 || t * t <= variance * mean * mean ? 0 : (byte) 255;
+			}
+		}
+	}
+
+	/**
+	 * Integral image of the luma into mSum, and of its squares into
+	 * mSquares when asked for, with a zero first row and column.
+	 *
+	 * The squares overflow an int on big images, but window sums are far
+	 * below 2^31 and come out right from the wrapped values.
+	 */
+	private void integral(byte[] luma, int width, int height, boolean squares) {
+		int stride = width + 1;
+		int size = stride * (height + 1);
+		if (mSum.length < size) {
+			mSum = new int[size];
+			mAllocatedBytes += size * 4;
+		}
+		if (squares && mSquares.length < size) {
+			mSquares = new int[size];
+			mAllocatedBytes += size * 4;
+		}
+		int[] sum = mSum;
+		int[] square = mSquares;
+
+		for (int x = 0; x < stride; x++)
+			sum[x] = 0;
+		for (int y = 0, i = 0; y < height; y++) {
+			int row = (y + 1) * stride;
+			int rowSum = 0;
+			sum[row] = 0;
+			for (int x = 1; x <= width; x++, i++) {
+				rowSum += luma[i] & 0xFF;
+				sum[row + x] = sum[row - stride + x] + rowSum;
+			}
+		}
+		if (!squares)
+			return;
+
+		for (int x = 0; x < stride; x++)
+			square[x] = 0;
+		for (int y = 0, i = 0; y < height; y++) {
+			int row = (y + 1) * stride;
+			int rowSquares = 0;
+			square[row] = 0;
+			for (int x = 1; x <= width; x++, i++) {
+				int value = luma[i] & 0xFF;
+				rowSquares += value * value;
+				square[row + x] = square[row - stride + x] + rowSquares;
+			}
+		}
+	}
+
+	private void resize(int width, int height) {
+		if (mOutput.length < width * height) {
+			mOutput = new byte[width * height];
+			mAllocatedBytes += width * height;
+		}
+		mWidth = width;
+		mHeight = height;
+	}
+}
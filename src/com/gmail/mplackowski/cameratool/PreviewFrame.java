@@ -0,0 +1,76 @@
+package com.gmail.mplackowski.cameratool;
+
+/**
+ * Preview buffer together with the metadata stamped on it by the preview
+ * callback. Instances are owned by {@link FrameBufferPool} and reused.
+ */
+public class PreviewFrame {
+
+	private final byte[] mData;
+	private long mSequence;
+	private long mTimestamp;
+
+	private CropGeometry mGeometry;
+
+	public PreviewFrame(byte[] data) {
+		mData = data;
+	}
+
+	public byte[] data() {
+		return mData;
+	}
+
+	/** Monotonic number given to the frame when it was captured */
+	public long sequence() {
+		return mSequence;
+	}
+
+	/** Capture time in System.nanoTime() units */
+	public long timestamp() {
+		return mTimestamp;
+	}
+
+	/** Crop the frame was captured with, shared and immutable */
+	public CropGeometry geometry() {
+		return mGeometry;
+	}
+
+	public int width() {
+		return mGeometry.frameWidth();
+	}
+
+	public int height() {
+		return mGeometry.frameHeight();
+	}
+
+	/** Clockwise rotation from sensor to display */
+	public int degrees() {
+		return mGeometry.degrees();
+	}
+
+	/** Crop in rotated (display) space, see {@link FrameEngine} */
+	public int cropLeft() {
+		return mGeometry.left();
+	}
+
+	public int cropTop() {
+		return mGeometry.top();
+	}
+
+	public int cropRight() {
+		return mGeometry.right();
+	}
+
+	public int cropBottom() {
+		return mGeometry.bottom();
+	}
+
+	public void stamp(long sequence, long timestamp) {
+		mSequence = sequence;
+		mTimestamp = timestamp;
+	}
+
+	public void setGeometry(CropGeometry geometry) {
+		mGeometry = geometry;
+	}
+}
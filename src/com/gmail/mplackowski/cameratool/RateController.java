@@ -0,0 +1,146 @@
+package com.gmail.mplackowski.cameratool;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which preview frames are worth sending to OCR at all.
+ *
+ * Workers report how long recognition takes, the controller turns that,
+ * the policy and the device load into a target interval between frames,
+ * and the preview callback asks {@link #accept(long)} before doing any
+ * work with a frame.
+ *
+ * The load signal may read files or broadcasts, so it is sampled by the
+ * workers in {@link #recordLatency(long)}. accept runs on the camera thread
+ * and only reads the last sample.
+ */
+public class RateController {
+
+	public static enum Policy {
+		/** As fast as the workers can recognize */
+		MAX_THROUGHPUT,
+		/** Fixed number of frames per second, bounded by the workers */
+		FIXED_FPS,
+		/** Low fixed rate and never more than half of the workers time */
+		BATTERY_SAVER
+	};
+
+	public static final float BATTERY_SAVER_FPS = 2f;
+	/** Interval multiplier when the device reports full load */
+	public static final float MAX_LOAD_SLOWDOWN = 4f;
+	/** Weight of the newest sample in the latency average */
+	private static final float LATENCY_SMOOTHING = 0.2f;
+
+	private final Policy mPolicy;
+	private final float mFps;
+	private final int mWorkers;
+	private final LoadSignal mLoad;
+
+	private final AtomicLong mLatencyNanos = new AtomicLong();
+	private volatile float mLoadValue;
+	/** One worker samples the load at a time, the others go on */
+	private final AtomicBoolean mSampling = new AtomicBoolean();
+	private long mLastAccepted;
+	private volatile long mIntervalNanos;
+
+	private final AtomicLong mSkipped = new AtomicLong();
+
+	/**
+	 * @param fps target rate of FIXED_FPS
+	 * @param workers number of OCR workers sharing the frames
+	 */
+	public RateController(Policy policy, float fps, int workers, LoadSignal load) {
+		mPolicy = policy;
+		mFps = fps;
+		mWorkers = Math.max(1, workers);
+		mLoad = load == null ? LoadSignal.NONE : load;
+	}
+
+	/**
+	 * Called by the preview callback for every frame.
+	 *
+	 * @return false if the frame should be given back to the camera untouched
+	 */
+	public boolean accept(long nowNanos) {
+		long interval = interval();
+		mIntervalNanos = interval;
+		if (mLastAccepted != 0 && nowNanos - mLastAccepted < interval) {
+			mSkipped.incrementAndGet();
+			return false;
+		}
+		mLastAccepted = nowNanos;
+		return true;
+	}
+
+	/**
+	 * Called by the workers with the time spent recognizing a frame. Several
+	 * workers may report at once, none of their samples is lost. Also
+	 * samples the load signal.
+	 */
+	public void recordLatency(long nanos) {
+		while (true) {
+			long average = mLatencyNanos.get();
+			long updated = average == 0 ? nanos
+					: (long) (average + LATENCY_SMOOTHING * (nanos - average));
+			if (mLatencyNanos.compareAndSet(average, updated))
+				break;
+		}
+		sampleLoad();
+	}
+
+	/** Reads the load signal unless another worker is reading it */
+	private void sampleLoad() {
+		if (!mSampling.compareAndSet(false, true))
+			return;
+		try {
+			mLoadValue = Math.max(0f, Math.min(1f, mLoad.load()));
+		} finally {
+			mSampling.set(false);
+		}
+	}
+
+	private long interval() {
+		long latency = mLatencyNanos.get();
+		long perWorker = latency / mWorkers;
+		long interval;
+		switch (mPolicy) {
+		case FIXED_FPS:
+			interval = Math.max(perWorker, (long) (1e9 / mFps));
+			break;
+		case BATTERY_SAVER:
+			interval = Math.max(2 * latency, (long) (1e9 / BATTERY_SAVER_FPS));
+			break;
+		case MAX_THROUGHPUT:
+		default:
+			interval = perWorker;
+			break;
+		}
+
+		return (long) (interval * (1f + (MAX_LOAD_SLOWDOWN - 1f) * mLoadValue));
+	}
+
+	public Policy policy() {
+		return mPolicy;
+	}
+
+	/** Average recognition latency in nanoseconds */
+	public long latencyNanos() {
+		return mLatencyNanos.get();
+	}
+
+	/** Load last sampled, 0-1 */
+	public float load() {
+		return mLoadValue;
+	}
+
+	/** Current target interval between frames in nanoseconds */
+	public long intervalNanos() {
+		return mIntervalNanos;
+	}
+
+	/** Frames given back to the camera without being processed */
+	public long skippedFrames() {
+		return mSkipped.get();
+	}
+}
@@ -6,7 +6,6 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.hardware.Camera;
-import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
 
@@ -18,6 +17,7 @@ public class RectanglePicker extends View {
 	public static final int DEFAULT_PADDING = 0;
 	public static final int DEFAULT_PICKER_COLOR = Color.parseColor("#EB974E");
 	public static final int DEFAULT_ACTIVE_COLOR = Color.parseColor("#1BA39C");
+	public static final int DEFAULT_REGION_COLOR = Color.parseColor("#F4D03F");
 	
 	interface OnResizeListener {
 		public void onPickerResized(Rect rect);
@@ -37,6 +37,11 @@ public class RectanglePicker extends View {
 	
 	private int mPickerColor;
 	private int mActiveColor;
+	private int mRegionColor;
+
+	/** Text regions in view coordinates, left, top, right, bottom each */
+	private int[] mRegions = new int[0];
+	private int mRegionCount;
 
 	private int mBoundWidth;
 	private int mBoundHeight;
@@ -75,6 +80,7 @@ public class RectanglePicker extends View {
 		mPadding = DEFAULT_PADDING;
 		mPickerColor = DEFAULT_PICKER_COLOR;
 		mActiveColor = DEFAULT_ACTIVE_COLOR;
+		mRegionColor = DEFAULT_REGION_COLOR;
 	}
 
 	@Override
@@ -82,7 +88,7 @@ public class RectanglePicker extends View {
 			int bottom) {
 		super.onLayout(changed, left, top, right, bottom);
 
-		Log.d(TAG, "onLayout w:" + getWidth() + " h: " + getHeight());
+		if (OCRLog.D) OCRLog.d(TAG, "onLayout w:" + getWidth() + " h: " + getHeight());
 		mBoundHeight = getHeight();
 		mBoundWidth = getWidth();
 		mActiveSize = Math.min(mBoundHeight, mBoundWidth)/mDivider;
@@ -90,6 +96,8 @@ public class RectanglePicker extends View {
 			mInit = false;
 			computeInitLayout();
 		}
+		if (changed && mResizeListener != null)
+			mResizeListener.onPickerResized(rect());
 	}
 
 	private void computeInitLayout() {
@@ -140,6 +148,41 @@ public class RectanglePicker extends View {
 						bottom() - mActiveSize, 
 						right(),
 						bottom(), mPaint);
+		
+		// 4. draw detected text regions
+		if (mRegionCount > 0) {
+			mPaint.setColor(mRegionColor);
+			mPaint.setStrokeWidth(1);
+			for (int i = 0; i < mRegionCount * 4; i += 4)
+				canvas.drawRect(mRegions[i], mRegions[i + 1], mRegions[i + 2],
+						mRegions[i + 3], mPaint);
+		}
+	}
+	
+	/**
+	 * Shows text regions found in the crop of the picker, must be called on
+	 * the main thread.
+	 * 
+	 * @param boxes left, top, right, bottom of each region in crop pixels
+	 * @param cropWidth width of the crop the boxes were found in
+	 */
+	public void setTextRegions(int[] boxes, int count, int cropWidth, int cropHeight) {
+		if (cropWidth <= 0 || cropHeight <= 0)
+			count = 0;
+		if (mRegions.length < count * 4)
+			mRegions = new int[count * 4];
+		float scaleX = (float) (right() - left()) / Math.max(1, cropWidth);
+		float scaleY = (float) (bottom() - top()) / Math.max(1, cropHeight);
+		for (int i = 0; i < count * 4; i += 4) {
+			mRegions[i] = left() + (int) (boxes[i] * scaleX);
+			mRegions[i + 1] = top() + (int) (boxes[i + 1] * scaleY);
+			mRegions[i + 2] = left() + (int) (boxes[i + 2] * scaleX);
+			mRegions[i + 3] = top() + (int) (boxes[i + 3] * scaleY);
+		}
+		if (count == 0 && mRegionCount == 0)
+			return;
+		mRegionCount = count;
+		invalidate();
 	}
 	
 	
@@ -148,6 +191,16 @@ public class RectanglePicker extends View {
 	}
 	
 	public Rect rect(Camera.Size size, int degrees){
+		CropGeometry geometry = geometry(size.width, size.height, degrees);
+		return new Rect(geometry.left(), geometry.top(), geometry.right(), geometry.bottom());
+	}
+
+	/**
+	 * Crop of the picker for frames of the preview size, must be called on
+	 * the main thread. The result is immutable and can be handed to the
+	 * OCR workers.
+	 */
+	public CropGeometry geometry(int previewWidth, int previewHeight, int degrees){
 		
 		float hR = 0;
 		float wR = 0;
@@ -155,23 +208,28 @@ public class RectanglePicker extends View {
 		// portrait 
 		if(degrees == 90 || degrees == 270)
 		{
-			hR = (float)size.width/mBoundHeight;
-			wR = (float)size.height/mBoundWidth;
+			hR = (float)previewWidth/mBoundHeight;
+			wR = (float)previewHeight/mBoundWidth;
 		// landscape
 		}else
 		{
-			hR = (float)size.height/mBoundHeight;
-			wR = (float)size.width/mBoundWidth;
+			hR = (float)previewHeight/mBoundHeight;
+			wR = (float)previewWidth/mBoundWidth;
 		}
 		
 		int left =   (int)(wR*mX);
 		int right =  (int)(wR*(mX+mWidth));
 		int top =    (int)(hR*mY);
 		int bottom = (int)(hR*(mY+mHeight));
-		Log.d(TAG,"pickerRect "+(new Rect(left,top,right,bottom)));
-		return new Rect(left,top,right,bottom);
+		if (OCRLog.D) OCRLog.d(TAG,"pickerRect "+left+","+top+" - "+right+","+bottom);
+		OCRLog.trace(OCRLog.EVENT_PICKER_RECT, OCRLog.pack(left, top), OCRLog.pack(right, bottom));
+		return new CropGeometry(previewWidth, previewHeight, degrees, left, top, right, bottom);
 	}
 		
+	/** Called on the main thread whenever the picker moves, resizes or is laid out */
+	public void setOnResizeListener(OnResizeListener listener) {
+		mResizeListener = listener;
+	}
 
 	@Override
 	public boolean onTouchEvent(MotionEvent event) {
@@ -225,7 +283,8 @@ public class RectanglePicker extends View {
 
 		if (x == 0 && y == 0) return;
 
-		Log.d(TAG, "resizePicker x:" + x + " y:" + y);
+		if (OCRLog.D) OCRLog.d(TAG, "resizePicker x:" + x + " y:" + y);
+		OCRLog.trace(OCRLog.EVENT_PICKER_RESIZE, x, y);
 
 		// 2. Validate and assign new values
 		if (area == PickerArea.LEFT_TOP) {
@@ -258,7 +317,8 @@ public class RectanglePicker extends View {
 		
 		if (x == 0 && y == 0) return;
 		
-		Log.d(TAG, "movePicker x:" + x + " y:" + y);
+		if (OCRLog.D) OCRLog.d(TAG, "movePicker x:" + x + " y:" + y);
+		OCRLog.trace(OCRLog.EVENT_PICKER_MOVE, x, y);
 
 		// 2. Validate and assign new values
 		if (isValidX(mX + x))
@@ -0,0 +1,149 @@
+package com.gmail.mplackowski.cameratool;
+
+import java.util.List;
+
+import android.hardware.Camera;
+
+/**
+ * Picks the preview size from what OCR needs instead of the view size: the
+ * cheapest size at which text lines inside the picker crop are at least
+ * minTextHeight pixels high.
+ *
+ * The line height is measured as a share of the crop height, from the text
+ * regions found in recent crops, so it does not depend on the resolution.
+ * Cost is measured as recognition time per crop pixel. When no size gives
+ * tall enough text, the largest size whose crop still fits the frame
+ * budget is taken, and the cheapest one if none fits.
+ */
+public class ResolutionPolicy {
+
+	/** Line height as a share of the crop height until one is measured */
+	public static final float DEFAULT_TEXT_FRACTION = 0.25f;
+	/** Preview aspect ratio may differ this much from the view's */
+	private static final float ASPECT_TOLERANCE = 0.1f;
+	private static final float SMOOTHING = 0.2f;
+
+	private final int mMinTextHeight;
+	private final long mFrameBudgetNanos;
+
+	private volatile float mTextFraction = DEFAULT_TEXT_FRACTION;
+	private volatile float mNanosPerPixel;
+
+	/**
+	 * @param minTextHeight line height in crop pixels wanted
+	 * @param frameBudgetNanos recognition time allowed per frame, 0 for no
+	 *  limit
+	 */
+	public ResolutionPolicy(int minTextHeight, long frameBudgetNanos) {
+		mMinTextHeight = minTextHeight;
+		mFrameBudgetNanos = frameBudgetNanos;
+	}
+
+	/** Line height found in a crop of cropHeight pixels */
+	public void recordTextHeight(int textHeight, int cropHeight) {
+		if (textHeight <= 0 || cropHeight <= 0)
+			return;
+		float fraction = Math.min(1f, (float) textHeight / cropHeight);
+		mTextFraction += (fraction - mTextFraction) * SMOOTHING;
+	}
+
+	/** Recognition time of a frame with a crop of cropPixels pixels */
+	public void recordCost(long frameNanos, int cropPixels) {
+		if (frameNanos <= 0 || cropPixels <= 0)
+			return;
+		float nanosPerPixel = (float) frameNanos / cropPixels;
+		float current = mNanosPerPixel;
+		mNanosPerPixel = current == 0 ? nanosPerPixel
+				: current + (nanosPerPixel - current) * SMOOTHING;
+	}
+
+	public float textFraction() {
+		return mTextFraction;
+	}
+
+	public float nanosPerPixel() {
+		return mNanosPerPixel;
+	}
+
+	/**
+	 * @param cropWidth share of the rotated frame width covered by the crop
+	 * @param cropHeight share of the rotated frame height covered by the crop
+	 * @return chosen size, null if there are none
+	 */
+	public Camera.Size choose(List<Camera.Size> sizes, int degrees,
+			float cropWidth, float cropHeight, int viewWidth, int viewHeight) {
+		if (sizes == null || sizes.isEmpty())
+			return null;
+		int[] dimensions = new int[sizes.size() * 2];
+		for (int i = 0; i < sizes.size(); i++) {
+			dimensions[i * 2] = sizes.get(i).width;
+			dimensions[i * 2 + 1] = sizes.get(i).height;
+		}
+		return sizes.get(choose(dimensions, degrees, cropWidth, cropHeight,
+				viewWidth, viewHeight));
+	}
+
+	/**
+	 * Same on width, height pairs of sensor sizes.
+	 *
+	 * @return index of the chosen pair
+	 */
+	public int choose(int[] sizes, int degrees, float cropWidth, float cropHeight,
+			int viewWidth, int viewHeight) {
+		int count = sizes.length / 2;
+		boolean portrait = FrameEngine.isPortrait(degrees);
+		float viewAspect = viewHeight > 0 ? (float) viewWidth / viewHeight : 0;
+		boolean anyAspect = viewAspect == 0 || !hasAspect(sizes, portrait, viewAspect);
+		float textFraction = mTextFraction;
+		float nanosPerPixel = mNanosPerPixel;
+
+		int cheapest = -1;
+		long cheapestPixels = Long.MAX_VALUE;
+		int largest = -1;
+		long largestPixels = -1;
+		int fallback = 0;
+		long fallbackPixels = Long.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			int width = portrait ? sizes[i * 2 + 1] : sizes[i * 2];
+			int height = portrait ? sizes[i * 2] : sizes[i * 2 + 1];
+			if (!anyAspect && !matches(width, height, viewAspect))
+				continue;
+			long pixels = (long) (width * cropWidth) * (long) (height * cropHeight);
+			if (pixels < fallbackPixels) {
+				fallback = i;
+				fallbackPixels = pixels;
+			}
+
+			// 1. Tall enough text, the cheapest wins
+			if (height * cropHeight * textFraction >= mMinTextHeight) {
+				if (pixels < cheapestPixels) {
+					cheapest = i;
+					cheapestPixels = pixels;
+				}
+				continue;
+			}
+			// 2. Otherwise the largest crop that fits the budget
+			boolean affordable = mFrameBudgetNanos <= 0 || nanosPerPixel == 0
+					|| pixels * nanosPerPixel <= mFrameBudgetNanos;
+			if (affordable && pixels > largestPixels) {
+				largest = i;
+				largestPixels = pixels;
+			}
+		}
+		if (cheapest >= 0)
+			return cheapest;
+		return largest >= 0 ? largest : fallback;
+	}
+
+	private static boolean hasAspect(int[] sizes, boolean portrait, float aspect) {
+		for (int i = 0; i < sizes.length; i += 2)
+			if (matches(portrait ? sizes[i + 1] : sizes[i],
+					portrait ? sizes[i] : sizes[i + 1], aspect))
+				return true;
+		return false;
+	}
+
+	private static boolean matches(int width, int height, float aspect) {
+		return Math.abs((float) width / height - aspect) <= ASPECT_TOLERANCE;
+	}
+}
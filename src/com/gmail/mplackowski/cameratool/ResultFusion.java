@@ -0,0 +1,215 @@
+package com.gmail.mplackowski.cameratool;
+
+/**
+ * Stabilizes OCR output by voting over the results of the last frames.
+ *
+ * The anchor is the one of the last K texts that agrees best with the
+ * others, weighted by their confidence. Every other text is aligned to it
+ * with an edit distance alignment and each anchor position takes the
+ * character, or gap, with the highest summed confidence. The
+ * consensus is passed on only when it differs from the last one sent.
+ *
+ * Sits between {@link ResultSequencer} and the listener, so results arrive
+ * in frame order.
+ */
+public class ResultFusion implements ResultSequencer.Sink {
+
+	private static final char GAP = 0;
+
+	private final ResultSequencer.Sink mSink;
+	private final int mFrames;
+
+	private final String[] mTexts;
+	private final float[] mConfidence;
+	private int mCount;
+	private int mIndex;
+
+	private int[] mCost = new int[0];
+	private char[][] mAligned;
+	private final char[] mCandidates;
+	private final float[] mWeights;
+	private final StringBuilder mConsensus = new StringBuilder();
+	private String mLastSent;
+
+	/** @param frames number of recent results taking part in the vote */
+	public ResultFusion(int frames, ResultSequencer.Sink sink) {
+		if (frames < 1)
+			throw new IllegalArgumentException("At least one frame is needed");
+		mFrames = frames;
+		mSink = sink;
+		mTexts = new String[frames];
+		mConfidence = new float[frames];
+		mAligned = new char[frames][0];
+		mCandidates = new char[frames];
+		mWeights = new float[frames];
+	}
+
+	@Override
+	public synchronized void deliver(long sequence, String text, float accuracy) {
+		// 1. Remember the result
+		mTexts[mIndex] = text == null ? "" : text;
+		mConfidence[mIndex] = accuracy;
+		mIndex = (mIndex + 1) % mFrames;
+		if (mCount < mFrames)
+			mCount++;
+
+		// 2. Vote and send only a changed consensus
+		float agreement = vote();
+		if (mLastSent != null && mLastSent.contentEquals(mConsensus))
+			return;
+
+		float confidence = 0;
+		for (int i = 0; i < mCount; i++)
+			confidence += mConfidence[i];
+		confidence /= mCount;
+
+		mLastSent = mConsensus.toString();
+		mSink.deliver(sequence, mLastSent, confidence * agreement);
+	}
+
+	public synchronized void reset() {
+		for (int i = 0; i < mFrames; i++)
+			mTexts[i] = null;
+		mCount = 0;
+		mIndex = 0;
+		mLastSent = null;
+	}
+
+	public int frames() {
+		return mFrames;
+	}
+
+	/**
+	 * Builds the consensus of the stored texts into mConsensus.
+	 *
+	 * @return mean share of the vote the winning characters got, 0-1
+	 */
+	private float vote() {
+		mConsensus.setLength(0);
+
+		// 1. Anchor is the text most similar to the others
+		int anchor = 0;
+		float bestScore = -1;
+		for (int i = 0; i < mCount; i++) {
+			float score = 0;
+			for (int j = 0; j < mCount; j++) {
+				int longest = Math.max(mTexts[i].length(), mTexts[j].length());
+				float similarity = longest == 0 ? 1
+						: 1f - (float) distance(mTexts[i], mTexts[j]) / longest;
+				score += Math.max(1f, mConfidence[j]) * similarity;
+			}
+			if (score > bestScore) {
+				bestScore = score;
+				anchor = i;
+			}
+		}
+		String anchorText = mTexts[anchor];
+		int length = anchorText.length();
+		if (length == 0)
+			return 1;
+
+		// 2. Align every text to the anchor
+		for (int i = 0; i < mCount; i++) {
+			if (mAligned[i].length < length)
+				mAligned[i] = new char[length];
+			if (i == anchor)
+				anchorText.getChars(0, length, mAligned[i], 0);
+			else
+				align(anchorText, mTexts[i], mAligned[i]);
+		}
+
+		// 3. Confidence weighted vote for every anchor position
+		float agreement = 0;
+		for (int p = 0; p < length; p++) {
+			int candidates = 0;
+			float total = 0;
+			for (int i = 0; i < mCount; i++) {
+				char c = mAligned[i][p];
+				float weight = Math.max(1f, mConfidence[i]);
+				total += weight;
+
+				int k = 0;
+				while (k < candidates && mCandidates[k] != c)
+					k++;
+				if (k == candidates) {
+					mCandidates[k] = c;
+					mWeights[k] = 0;
+					candidates++;
+				}
+				mWeights[k] += weight;
+			}
+
+			int best = 0;
+			for (int k = 1; k < candidates; k++)
+				if (mWeights[k] > mWeights[best])
+					best = k;
+
+			agreement += mWeights[best] / total;
+			if (mCandidates[best] != GAP)
+				mConsensus.append(mCandidates[best]);
+		}
+		return agreement / length;
+	}
+
+	/**
+	 * Aligns text to the anchor with a Levenshtein alignment.
+	 *
+	 * @param out character of text matched with each anchor position, GAP
+	 *  where the anchor character has no counterpart
+	 */
+	private void align(String anchor, String text, char[] out) {
+		int n = anchor.length();
+		int m = text.length();
+		int columns = m + 1;
+
+		// 1. Edit distance table
+		distance(anchor, text);
+		int[] cost = mCost;
+
+		// 2. Walk back, characters inserted in text are ignored
+		int i = n;
+		int j = m;
+		while (i > 0) {
+			int here = cost[i * columns + j];
+			if (j > 0) {
+				int diagonal = cost[(i - 1) * columns + j - 1]
+						+ (anchor.charAt(i - 1) == text.charAt(j - 1) ? 0 : 1);
+				if (here == diagonal) {
+					out[--i] = text.charAt(--j);
+					continue;
+				}
+				if (here == cost[i * columns + j - 1] + 1) {
+					j--;
+					continue;
+				}
+			}
+			out[--i] = GAP;
+		}
+	}
+
+	/** Levenshtein distance, leaves the full table in mCost */
+	private int distance(String anchor, String text) {
+		int n = anchor.length();
+		int m = text.length();
+		int columns = m + 1;
+		if (mCost.length < (n + 1) * columns)
+			mCost = new int[(n + 1) * columns];
+		int[] cost = mCost;
+
+		for (int j = 0; j <= m; j++)
+			cost[j] = j;
+		for (int i = 1; i <= n; i++) {
+			int row = i * columns;
+			cost[row] = i;
+			char a = anchor.charAt(i - 1);
+			for (int j = 1; j <= m; j++) {
+				int substitution = cost[row - columns + j - 1]
+						+ (a == text.charAt(j - 1) ? 0 : 1);
+				int deletion = cost[row - columns + j] + 1;
+				int insertion = cost[row + j - 1] + 1;
+				cost[row + j] = Math.min(substitution, Math.min(deletion, insertion));
+			}
+		}
+		return cost[n * columns + m];
+	}
+}
@@ -0,0 +1,108 @@
+package com.gmail.mplackowski.cameratool;
+
+/**
+ * Puts results of parallel OCR workers back into frame order.
+ *
+ * A worker calls {@link #begin(long)} before recognition and
+ * {@link #complete(long, String, float)} or {@link #cancel(long)} after it.
+ * A result is delivered only once every older frame in flight has finished,
+ * and a frame older than the last delivered one is never started, so the
+ * listener never sees an older result after a newer one.
+ */
+public class ResultSequencer {
+
+	public interface Sink {
+		public void deliver(long sequence, String text, float accuracy);
+	}
+
+	private final Sink mSink;
+
+	private final long[] mSequence;
+	private final boolean[] mUsed;
+	private final boolean[] mDone;
+	private final String[] mText;
+	private final float[] mAccuracy;
+
+	private long mLastDelivered = -1;
+
+	/** @param maxInFlight number of frames that can be recognized at once */
+	public ResultSequencer(int maxInFlight, Sink sink) {
+		mSink = sink;
+		mSequence = new long[maxInFlight];
+		mUsed = new boolean[maxInFlight];
+		mDone = new boolean[maxInFlight];
+		mText = new String[maxInFlight];
+		mAccuracy = new float[maxInFlight];
+	}
+
+	/** @return false if the frame is already outdated and should be skipped */
+	public synchronized boolean begin(long sequence) {
+		if (sequence <= mLastDelivered)
+			return false;
+		for (int i = 0; i < mUsed.length; i++) {
+			if (!mUsed[i]) {
+				mUsed[i] = true;
+				mDone[i] = false;
+				mSequence[i] = sequence;
+				mText[i] = null;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public synchronized void complete(long sequence, String text, float accuracy) {
+		int i = slot(sequence);
+		if (i < 0)
+			return;
+		mDone[i] = true;
+		mText[i] = text;
+		mAccuracy[i] = accuracy;
+		drain();
+	}
+
+	/** Finishes the frame without a result, no-op once it has completed */
+	public synchronized void cancel(long sequence) {
+		int i = slot(sequence);
+		if (i < 0 || mDone[i])
+			return;
+		mDone[i] = true;
+		mText[i] = null;
+		drain();
+	}
+
+	public synchronized void reset() {
+		for (int i = 0; i < mUsed.length; i++) {
+			mUsed[i] = false;
+			mText[i] = null;
+		}
+		mLastDelivered = -1;
+	}
+
+	private int slot(long sequence) {
+		for (int i = 0; i < mUsed.length; i++)
+			if (mUsed[i] && mSequence[i] == sequence)
+				return i;
+		return -1;
+	}
+
+	/** Delivers finished results as long as the oldest frame in flight is done */
+	private void drain() {
+		while (true) {
+			int oldest = -1;
+			for (int i = 0; i < mUsed.length; i++)
+				if (mUsed[i] && (oldest < 0 || mSequence[i] < mSequence[oldest]))
+					oldest = i;
+
+			if (oldest < 0 || !mDone[oldest])
+				return;
+
+			mUsed[oldest] = false;
+			if (mText[oldest] != null && mSequence[oldest] > mLastDelivered) {
+				mLastDelivered = mSequence[oldest];
+				mSink.deliver(mSequence[oldest], mText[oldest], mAccuracy[oldest]);
+			}
+			mText[oldest] = null;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.gmail.mplackowski.cameratool;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Rejects motion-blurred or out of focus crops before they reach the OCR
+ * engine.
+ *
+ * The focus metric is the variance of the Laplacian computed on a decimated
+ * grid of the luma crop. A frame is rejected when its metric is below
+ * ratio times the mean of the recent frames, so the threshold follows the
+ * scene and the camera instead of being a fixed number.
+ */
+public class SharpnessFilter {
+
+	/** Longest side of the decimated grid the Laplacian is computed on */
+	public static final int GRID_SIZE = 128;
+	public static final int HISTORY = 32;
+	/** Frames seen before anything is rejected */
+	public static final int MIN_HISTORY = 8;
+	public static final int HISTOGRAM_BUCKETS = 20;
+
+	private final float mRatio;
+	private final float mMinimum;
+
+	private final float[] mHistory = new float[HISTORY];
+	private int mHistoryCount;
+	private int mHistoryIndex;
+	private float mHistorySum;
+
+	private final AtomicLong mRejected = new AtomicLong();
+	private final AtomicLongArray mHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+	/**
+	 * @param ratio part of the recent mean sharpness a frame needs to reach
+	 * @param minimum absolute sharpness every frame needs to reach
+	 */
+	public SharpnessFilter(float ratio, float minimum) {
+		mRatio = ratio;
+		mMinimum = minimum;
+	}
+
+	/** Variance of the Laplacian of the luma crop on a decimated grid */
+	public static float measure(byte[] luma, int width, int height) {
+		int step = Math.max(1, Math.max(width, height) / GRID_SIZE);
+		if (width < 3 * step || height < 3 * step)
+			return 0;
+
+		long sum = 0;
+		long squares = 0;
+		int count = 0;
+		int rowStep = step * width;
+		for (int y = step; y < height - step; y += step) {
+			int i = y * width + step;
+			for (int x = step; x < width - step; x += step, i += step) {
+				int laplacian = 4 * (luma[i] & 0xFF)
+						- (luma[i - step] & 0xFF) - (luma[i + step] & 0xFF)
+						- (luma[i - rowStep] & 0xFF) - (luma[i + rowStep] & 0xFF);
+				sum += laplacian;
+				squares += laplacian * laplacian;
+				count++;
+			}
+		}
+		double mean = (double) sum / count;
+		return (float) ((double) squares / count - mean * mean);
+	}
+
+	/** @return false if the frame with the given metric should be dropped */
+	public boolean accept(float sharpness) {
+		mHistogram.incrementAndGet(bucket(sharpness));
+
+		boolean accepted;
+		synchronized (this) {
+			float threshold = mMinimum;
+			if (mHistoryCount >= MIN_HISTORY)
+				threshold = Math.max(threshold, mRatio * mHistorySum / mHistoryCount);
+			accepted = sharpness >= threshold;
+
+			// 1. Keep the recent distribution, rejected frames included, so
+			// the threshold goes down when the whole scene gets softer
+			if (mHistoryCount < HISTORY)
+				mHistoryCount++;
+			else
+				mHistorySum -= mHistory[mHistoryIndex];
+			mHistory[mHistoryIndex] = sharpness;
+			mHistorySum += sharpness;
+			mHistoryIndex = (mHistoryIndex + 1) % HISTORY;
+		}
+
+		if (!accepted)
+			mRejected.incrementAndGet();
+		return accepted;
+	}
+
+	/** Forgets the recent frames, the counters stay */
+	public synchronized void reset() {
+		mHistoryCount = 0;
+		mHistoryIndex = 0;
+		mHistorySum = 0;
+	}
+
+	/** Current threshold, 0 until enough frames have been seen */
+	public synchronized float threshold() {
+		if (mHistoryCount < MIN_HISTORY)
+			return mMinimum;
+		return Math.max(mMinimum, mRatio * mHistorySum / mHistoryCount);
+	}
+
+	public long rejectedFrames() {
+		return mRejected.get();
+	}
+
+	/**
+	 * Counts of the measured sharpness, bucket i holds metrics in
+	 * [2^(i-1), 2^i), bucket 0 metrics below 1.
+	 */
+	public long[] histogram() {
+		long[] histogram = new long[HISTOGRAM_BUCKETS];
+		for (int i = 0; i < HISTOGRAM_BUCKETS; i++)
+			histogram[i] = mHistogram.get(i);
+		return histogram;
+	}
+
+	private static int bucket(float sharpness) {
+		if (sharpness < 1)
+			return 0;
+		int bucket = 32 - Integer.numberOfLeadingZeros((int) Math.min(sharpness, Integer.MAX_VALUE));
+		return Math.min(bucket, HISTOGRAM_BUCKETS - 1);
+	}
+}
@@ -0,0 +1,53 @@
+package com.gmail.mplackowski.cameratool;
+
+import com.googlecode.tesseract.android.TessBaseAPI;
+
+/**
+ * {@link OcrEngine} backed by tess-two TessBaseAPI.
+ */
+public class TesseractEngine implements OcrEngine {
+
+	public static final Factory FACTORY = new Factory() {
+		@Override
+		public OcrEngine create() {
+			return new TesseractEngine();
+		}
+	};
+
+	private final TessBaseAPI mTesseract;
+
+	public TesseractEngine() {
+		mTesseract = new TessBaseAPI();
+		mTesseract.setDebug(true);
+	}
+
+	@Override
+	public boolean init(String dataPath, String language) {
+		return mTesseract.init(dataPath, language);
+	}
+
+	@Override
+	public void setImage(byte[] luma, int width, int height) {
+		mTesseract.setImage(luma, width, height, 1, width);
+	}
+
+	@Override
+	public String getText() {
+		return mTesseract.getUTF8Text();
+	}
+
+	@Override
+	public float meanConfidence() {
+		return mTesseract.meanConfidence();
+	}
+
+	@Override
+	public void clear() {
+		mTesseract.clear();
+	}
+
+	@Override
+	public void end() {
+		mTesseract.end();
+	}
+}
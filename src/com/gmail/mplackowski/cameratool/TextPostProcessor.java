@@ -0,0 +1,224 @@
+package com.gmail.mplackowski.cameratool;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cleans up recognized text in a single pass over the characters:
+ *
+ * - characters outside the whitelist are removed
+ * - runs of whitespace and removed characters collapse into one space
+ * - letters are upper or lower cased
+ *
+ * and then hands the result to the validators, text none of them accepts
+ * is replaced by an empty string. With no validators every text is kept.
+ *
+ * Configure the processor before handing it to {@link CameraTool} or
+ * {@link BatchOCR}, it is then shared by the workers. Every thread gets its
+ * own StringBuilder and matchers, the only allocation per text is the
+ * resulting String, and none when the text is already clean.
+ */
+public class TextPostProcessor {
+
+	public static enum Case {
+		KEEP, UPPER, LOWER
+	};
+
+	/** Decides whether cleaned text is worth delivering */
+	public interface Validator {
+		/** Called on the worker threads, text is only valid during the call */
+		public boolean accept(CharSequence text);
+	}
+
+	public static final String ALPHANUMERIC = "abcdefghijklmnopqrstuvwxyz"
+			+ "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+	private BitSet mWhitelist;
+	private boolean mCollapseWhitespace = true;
+	private boolean mTrim;
+	private Case mCase = Case.KEEP;
+	private final List<Validator> mValidators = new ArrayList<Validator>();
+
+	private final ThreadLocal<StringBuilder> mBuilder = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(64);
+		}
+	};
+
+	/** Same result as text.replaceAll("[^a-zA-Z0-9]+", " ") */
+	public static TextPostProcessor alphanumeric() {
+		return new TextPostProcessor().whitelist(ALPHANUMERIC);
+	}
+
+	/** Keeps only these characters, null keeps all of them */
+	public TextPostProcessor whitelist(String characters) {
+		if (characters == null) {
+			mWhitelist = null;
+			return this;
+		}
+		mWhitelist = new BitSet();
+		for (int i = 0; i < characters.length(); i++)
+			mWhitelist.set(characters.charAt(i));
+		return this;
+	}
+
+	/**
+	 * Replaces runs of whitespace and removed characters by one space, on by
+	 * default. When off removed characters are just dropped.
+	 */
+	public TextPostProcessor collapseWhitespace(boolean collapse) {
+		mCollapseWhitespace = collapse;
+		return this;
+	}
+
+	/** Drops leading and trailing spaces left by collapsing */
+	public TextPostProcessor trim(boolean trim) {
+		mTrim = trim;
+		return this;
+	}
+
+	public TextPostProcessor letterCase(Case letterCase) {
+		mCase = letterCase;
+		return this;
+	}
+
+	/** Adds a validator, text is kept when any of them accepts it */
+	public TextPostProcessor validator(Validator validator) {
+		mValidators.add(validator);
+		return this;
+	}
+
+	/** @return cleaned text, empty when no validator accepted it */
+	public String process(String text) {
+		if (text == null)
+			return "";
+		StringBuilder out = mBuilder.get();
+		out.setLength(0);
+		BitSet whitelist = mWhitelist;
+		boolean collapse = mCollapseWhitespace;
+		boolean separator = false;
+
+		for (int i = 0, length = text.length(); i < length; i++) {
+			char c = text.charAt(i);
+			boolean allowed = whitelist == null || whitelist.get(c);
+			if (collapse && (!allowed || Character.isWhitespace(c))) {
+				separator = true;
+				continue;
+			}
+			if (!allowed)
+				continue;
+			if (separator) {
+				if (!mTrim || out.length() > 0)
+					out.append(' ');
+				separator = false;
+			}
+			switch (mCase) {
+			case UPPER:
+				c = Character.toUpperCase(c);
+				break;
+			case LOWER:
+				c = Character.toLowerCase(c);
+				break;
+			case KEEP:
+				break;
+			}
+			out.append(c);
+		}
+		if (separator && !mTrim)
+			out.append(' ');
+
+		if (!isValid(out))
+			return "";
+		return text.contentEquals(out) ? text : out.toString();
+	}
+
+	private boolean isValid(CharSequence text) {
+		int count = mValidators.size();
+		if (count == 0)
+			return true;
+		if (text.length() == 0)
+			return false;
+		for (int i = 0; i < count; i++)
+			if (mValidators.get(i).accept(text))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Accepts text that matches the expression as a whole, e.g. a serial
+	 * number or an IBAN. The pattern is compiled once, matchers are reused
+	 * per thread.
+	 */
+	public static Validator matches(String regex) {
+		return new PatternValidator(Pattern.compile(regex), false);
+	}
+
+	/** Accepts text that contains a match of the expression */
+	public static Validator contains(String regex) {
+		return new PatternValidator(Pattern.compile(regex), true);
+	}
+
+	/** Accepts text whose space separated words are all in the dictionary */
+	public static Validator dictionary(Collection<String> words) {
+		return new DictionaryValidator(words);
+	}
+
+	private static class PatternValidator implements Validator {
+
+		private final boolean mFind;
+		private final ThreadLocal<Matcher> mMatcher;
+
+		PatternValidator(final Pattern pattern, boolean find) {
+			mFind = find;
+			mMatcher = new ThreadLocal<Matcher>() {
+				@Override
+				protected Matcher initialValue() {
+					return pattern.matcher("");
+				}
+			};
+		}
+
+		@Override
+		public boolean accept(CharSequence text) {
+			Matcher matcher = mMatcher.get().reset(text);
+			boolean accepted = mFind ? matcher.find() : matcher.matches();
+			// do not keep the worker's builder referenced
+			matcher.reset("");
+			return accepted;
+		}
+	}
+
+	private static class DictionaryValidator implements Validator {
+
+		private final Set<String> mWords;
+
+		DictionaryValidator(Collection<String> words) {
+			mWords = new HashSet<String>(words);
+		}
+
+		@Override
+		public boolean accept(CharSequence text) {
+			int length = text.length();
+			int start = 0;
+			boolean any = false;
+			for (int i = 0; i <= length; i++) {
+				if (i < length && text.charAt(i) != ' ')
+					continue;
+				if (i > start) {
+					if (!mWords.contains(text.subSequence(start, i).toString()))
+						return false;
+					any = true;
+				}
+				start = i + 1;
+			}
+			return any;
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package com.gmail.mplackowski.cameratool;
+
+/**
+ * Finds text lines in a luma crop from horizontal edge density, so only
+ * those bands have to be recognized.
+ *
+ * Text has many strong horizontal luma changes per row. Rows where the
+ * share of such edges reaches minDensity are grouped into bands, small gaps
+ * between rows are bridged, and every band is trimmed left and right to the
+ * columns that have edges, plus some padding.
+ *
+ * Arrays are reused between frames, an instance must only be used by one
+ * thread.
+ */
+public class TextRegionDetector {
+
+	/** Ints per box: left, top, right, bottom */
+	public static final int BOX = 4;
+	/** Regions recognized per crop at most */
+	public static final int MAX_REGIONS = 8;
+
+	/** Rows without edges bridged inside a band */
+	private static final int ROW_GAP = 2;
+	/** Bands lower than this are noise */
+	private static final int MIN_HEIGHT = 6;
+	/** Rows need at least this many edges besides the density */
+	private static final int MIN_EDGES = 4;
+
+	private final int mEdgeThreshold;
+	private final float mMinDensity;
+
+	private int[] mRowEdges = new int[0];
+	private int[] mColumnEdges = new int[0];
+	private long mAllocatedBytes;
+
+	/**
+	 * @param edgeThreshold luma difference between neighbours that counts
+	 *  as an edge
+	 * @param minDensity share of edge pixels, 0-1, that makes a text row
+	 */
+	public TextRegionDetector(int edgeThreshold, float minDensity) {
+		mEdgeThreshold = edgeThreshold;
+		mMinDensity = minDensity;
+	}
+
+	/** Bytes allocated for working buffers so far */
+	public long allocatedBytes() {
+		return mAllocatedBytes;
+	}
+
+	/**
+	 * @param boxes receives BOX ints per region, top to bottom
+	 * @return number of regions found, at most boxes.length / BOX
+	 */
+	public int detect(byte[] luma, int width, int height, int[] boxes) {
+		if (width < 2 || height < MIN_HEIGHT)
+			return 0;
+		if (mRowEdges.length < height) {
+			mRowEdges = new int[height];
+			mAllocatedBytes += height * 4;
+		}
+		if (mColumnEdges.length < width) {
+			mColumnEdges = new int[width];
+			mAllocatedBytes += width * 4;
+		}
+
+		// 1. Edges per row
+		int[] rows = mRowEdges;
+		for (int y = 0; y < height; y++) {
+			int i = y * width;
+			int end = i + width - 1;
+			int edges = 0;
+			int previous = luma[i] & 0xFF;
+			while (i < end) {
+				int current = luma[++i] & 0xFF;
+				int difference = current - previous;
+				// branch free: 1 when |difference| > threshold
+				edges += (mEdgeThreshold - ((difference ^ (difference >> 31)) - (difference >> 31))) >>> 31;
+				previous = current;
+			}
+			rows[y] = edges;
+		}
+
+		// 2. Group text rows into bands
+		int minEdges = Math.max(MIN_EDGES, (int) (mMinDensity * width));
+		int maxBoxes = boxes.length / BOX;
+		int count = 0;
+		int y = 0;
+		while (y < height && count < maxBoxes) {
+			if (rows[y] < minEdges) {
+				y++;
+				continue;
+			}
+			int top = y;
+			int bottom = y + 1;
+			int gap = 0;
+			for (y++; y < height && gap <= ROW_GAP; y++) {
+				if (rows[y] >= minEdges) {
+					bottom = y + 1;
+					gap = 0;
+				} else {
+					gap++;
+				}
+			}
+			if (bottom - top >= MIN_HEIGHT && trim(luma, width, height, top,
+					bottom, boxes, count * BOX))
+				count++;
+		}
+		return count;
+	}
+
+	/** Trims the band to its edge columns and pads it into boxes */
+	private boolean trim(byte[] luma, int width, int height, int top,
+			int bottom, int[] boxes, int box) {
+
+		// 1. Edges per column inside the band
+		int[] columns = mColumnEdges;
+		for (int x = 0; x < width; x++)
+			columns[x] = 0;
+		for (int y = top; y < bottom; y++) {
+			int i = y * width;
+			int previous = luma[i] & 0xFF;
+			for (int x = 1; x < width; x++) {
+				int current = luma[i + x] & 0xFF;
+				int difference = current - previous;
+				columns[x] += (mEdgeThreshold - ((difference ^ (difference >> 31)) - (difference >> 31))) >>> 31;
+				previous = current;
+			}
+		}
+
+		// 2. Outermost columns with edges in enough rows
+		int minRows = Math.max(1, (bottom - top) / 8);
+		int left = 0;
+		while (left < width && columns[left] < minRows)
+			left++;
+		int right = width - 1;
+		while (right > left && columns[right] < minRows)
+			right--;
+		if (right <= left)
+			return false;
+
+		// 3. Pad, characters extend past their strongest edges
+		int padding = Math.max(2, (bottom - top) / 4);
+		boxes[box] = Math.max(0, left - padding);
+		boxes[box + 1] = Math.max(0, top - padding);
+		boxes[box + 2] = Math.min(width, right + 1 + padding);
+		boxes[box + 3] = Math.min(height, bottom + padding);
+		return true;
+	}
+}
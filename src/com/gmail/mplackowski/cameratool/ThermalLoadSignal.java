@@ -0,0 +1,96 @@
+package com.gmail.mplackowski.cameratool;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * {@link LoadSignal} based on the hottest thermal zone in
+ * /sys/class/thermal, so OCR slows down before the device throttles.
+ *
+ * The load rises linearly from 0 at startCelsius to 1 at maxCelsius. The
+ * zones are read at most once per sampling period, between reads the last
+ * value is returned. Where no zone is readable the load is 0.
+ */
+public class ThermalLoadSignal implements LoadSignal {
+
+	private static final String THERMAL = "/sys/class/thermal";
+
+	private final long mPeriodNanos;
+	private final float mStart;
+	private final float mMax;
+	private long mLastSample;
+	private File[] mZones;
+	private volatile float mLoad;
+
+	public ThermalLoadSignal(long periodMillis, float startCelsius, float maxCelsius) {
+		if (maxCelsius <= startCelsius)
+			throw new IllegalArgumentException("Max temperature must be above the start");
+		mPeriodNanos = periodMillis * 1000000L;
+		mStart = startCelsius;
+		mMax = maxCelsius;
+	}
+
+	@Override
+	public float load() {
+		long now = System.nanoTime();
+		if (now - mLastSample >= mPeriodNanos) {
+			mLastSample = now;
+			sample();
+		}
+		return mLoad;
+	}
+
+	private void sample() {
+		if (mZones == null)
+			mZones = zones();
+		float hottest = Float.NaN;
+		for (File zone : mZones) {
+			float celsius = read(zone);
+			if (!Float.isNaN(celsius) && (Float.isNaN(hottest) || celsius > hottest))
+				hottest = celsius;
+		}
+		if (!Float.isNaN(hottest))
+			mLoad = Math.max(0f, Math.min(1f, (hottest - mStart) / (mMax - mStart)));
+	}
+
+	private static File[] zones() {
+		File[] dirs = new File(THERMAL).listFiles();
+		if (dirs == null)
+			return new File[0];
+		int count = 0;
+		File[] zones = new File[dirs.length];
+		for (File dir : dirs)
+			if (dir.getName().startsWith("thermal_zone"))
+				zones[count++] = new File(dir, "temp");
+		File[] result = new File[count];
+		System.arraycopy(zones, 0, result, 0, count);
+		return result;
+	}
+
+	/** @return degrees Celsius, NaN if the zone can not be read */
+	private static float read(File zone) {
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(zone), 32);
+			String line = reader.readLine();
+			if (line == null)
+				return Float.NaN;
+			long value = Long.parseLong(line.trim());
+			// most kernels report millidegrees, some whole degrees
+			return value > 1000 ? value / 1000f : value;
+		} catch (IOException e) {
+			return Float.NaN;
+		} catch (RuntimeException e) {
+			return Float.NaN;
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+}
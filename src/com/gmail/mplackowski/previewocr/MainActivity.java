@@ -45,6 +45,7 @@ public class MainActivity extends Activity implements CameraInterface.OCRListene
 	
 	@Override
 	protected void onDestroy() {
+		mCameraTool.release();
 		super.onDestroy();
 	}
 
@@ -54,12 +55,13 @@ public class MainActivity extends Activity implements CameraInterface.OCRListene
 	}
 
 	@Override
-	public void onCropUpdate(final Bitmap image) {
-		
+	public void onCropUpdate(Bitmap image) {
+		// the tool reuses the bitmap, the view gets a copy of its own
+		final Bitmap copy = image.copy(image.getConfig(), false);
 		runOnUiThread(new Runnable() {
 			@Override
 			public void run() {
-				mCropIV.setImageBitmap(image);
+				mCropIV.setImageBitmap(copy);
 			}
 		});
 
@@ -0,0 +1,140 @@
+package com.gmail.mplackowski.cameratool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Shutdown and engine failures of {@link BatchOCR}: every submitted task
+ * must finish one way or another, so awaitCompletion returns.
+ */
+public class BatchOCRTest {
+
+	private static final int WIDTH = 64;
+	private static final int HEIGHT = 48;
+	private static final long TIMEOUT = 5000;
+
+	@Test
+	public void shutdownDropsQueuedTasks() throws Exception {
+		Results results = new Results();
+		BatchOCR batch = new BatchOCR(FakeOcrEngine.factory("text", 80, 20000000, 0),
+				2, 4, results);
+		batch.start(null, null);
+		for (int i = 0; i < 8; i++)
+			batch.submit(task(i));
+		batch.shutdown();
+
+		assertTrue(awaitCompletion(batch));
+		assertEquals(8, batch.completed() + batch.failed() + batch.dropped());
+		assertEquals(batch.dropped(), results.cancelled.get());
+		assertRefused(batch);
+	}
+
+	@Test
+	public void shutdownReleasesBlockedSubmit() throws Exception {
+		Results results = new Results();
+		final BatchOCR batch = new BatchOCR(FakeOcrEngine.factory("text", 80, 0, 0),
+				1, 1, results);
+		// not started, the second task has no room
+		batch.submit(task(0));
+		final AtomicInteger refused = new AtomicInteger();
+		Thread submitter = new Thread() {
+			@Override
+			public void run() {
+				try {
+					batch.submit(task(1));
+				} catch (IllegalStateException e) {
+					refused.incrementAndGet();
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		submitter.start();
+		Thread.sleep(100);
+		batch.shutdown();
+		submitter.join(TIMEOUT);
+
+		assertFalse(submitter.isAlive());
+		assertEquals(1, refused.get());
+		assertTrue(awaitCompletion(batch));
+		assertEquals(1, batch.dropped());
+	}
+
+	@Test
+	public void failedEnginesFailQueuedTasks() throws Exception {
+		Results results = new Results();
+		BatchOCR batch = new BatchOCR(new OcrEngine.Factory() {
+			@Override
+			public OcrEngine create() {
+				return new FakeOcrEngine("text", 80, 0, 0) {
+					@Override
+					public boolean init(String dataPath, String language) {
+						return false;
+					}
+				};
+			}
+		}, 2, 4, results);
+		for (int i = 0; i < 5; i++)
+			batch.submit(task(i));
+		batch.start(null, null);
+
+		assertTrue(awaitCompletion(batch));
+		assertEquals(0, batch.engines());
+		assertEquals(5, batch.dropped());
+		assertEquals(5, results.cancelled.get());
+		assertRefused(batch);
+	}
+
+	private static BatchOCR.Task task(final int seed) {
+		return new BatchOCR.Task("task-" + seed) {
+			@Override
+			protected void load(BatchOCR.Image image) {
+				byte[] frame = FrameEngineTest.frame(WIDTH, HEIGHT, seed);
+				System.arraycopy(frame, 0, image.luma(WIDTH, HEIGHT), 0, WIDTH * HEIGHT);
+			}
+		};
+	}
+
+	private static boolean awaitCompletion(final BatchOCR batch) throws InterruptedException {
+		Thread waiter = new Thread() {
+			@Override
+			public void run() {
+				try {
+					batch.awaitCompletion();
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		waiter.start();
+		waiter.join(TIMEOUT);
+		return !waiter.isAlive();
+	}
+
+	private static void assertRefused(BatchOCR batch) throws InterruptedException {
+		try {
+			batch.submit(task(99));
+			fail("task accepted");
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	private static class Results implements BatchOCR.Sink {
+		final AtomicInteger cancelled = new AtomicInteger();
+
+		@Override
+		public void onResult(BatchOCR.Task task, String text, float accuracy) {
+		}
+
+		@Override
+		public void onError(BatchOCR.Task task, Exception e) {
+			if (e instanceof CancellationException)
+				cancelled.incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package com.gmail.mplackowski.cameratool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Color crop of {@link FrameEngine#cropArgb} against the path it replaced
+ * in CameraTool.getBitmapImageFromYUV: the whole frame converted to RGB,
+ * rotated like Matrix.postRotate in steps of 90 degrees and then cropped.
+ *
+ * The old path went through a JPEG at quality 90, which cannot be
+ * reproduced here. The reference converts with the same full range BT.601
+ * (JFIF) matrix in floating point instead, so channels may differ by the
+ * rounding of the fixed point factors.
+ */
+public class CropArgbTest {
+
+	private static final int[] ROTATIONS = { 0, 90, 180, 270 };
+	private static final int[][] SIZES = { { 8, 6 }, { 12, 10 }, { 64, 48 } };
+	/** Largest channel difference allowed */
+	private static final int TOLERANCE = 2;
+
+	@Test
+	public void fullFrame() {
+		for (int[] size : SIZES)
+			for (int degrees : ROTATIONS)
+				check(size[0], size[1], degrees, 0, 0,
+						FrameEngineTest.rotatedWidth(size[0], size[1], degrees),
+						FrameEngineTest.rotatedHeight(size[0], size[1], degrees));
+	}
+
+	@Test
+	public void oddOffsetsAndEdges() {
+		for (int[] size : SIZES)
+			for (int degrees : ROTATIONS) {
+				int rw = FrameEngineTest.rotatedWidth(size[0], size[1], degrees);
+				int rh = FrameEngineTest.rotatedHeight(size[0], size[1], degrees);
+				check(size[0], size[1], degrees, 1, 1, rw - 2, rh - 2);
+				check(size[0], size[1], degrees, 3, 1, rw - 1, rh - 2);
+				check(size[0], size[1], degrees, 0, 0, rw, 1);
+				check(size[0], size[1], degrees, rw - 1, 0, rw, rh);
+				check(size[0], size[1], degrees, rw - 1, rh - 1, rw, rh);
+			}
+	}
+
+	@Test
+	public void randomCrops() {
+		Random random = new Random(11);
+		for (int i = 0; i < 300; i++) {
+			int[] size = SIZES[random.nextInt(SIZES.length)];
+			int degrees = ROTATIONS[random.nextInt(ROTATIONS.length)];
+			int rw = FrameEngineTest.rotatedWidth(size[0], size[1], degrees);
+			int rh = FrameEngineTest.rotatedHeight(size[0], size[1], degrees);
+			int left = random.nextInt(rw);
+			int top = random.nextInt(rh);
+			check(size[0], size[1], degrees, left, top,
+					left + 1 + random.nextInt(rw - left), top + 1 + random.nextInt(rh - top));
+		}
+	}
+
+	/** Cutting the sensor rect first and rotating it, as rotateBitmap does */
+	@Test
+	public void sensorRectThenRotate() {
+		for (int[] size : SIZES)
+			for (int degrees : ROTATIONS) {
+				int width = size[0];
+				int height = size[1];
+				int rw = FrameEngineTest.rotatedWidth(width, height, degrees);
+				int rh = FrameEngineTest.rotatedHeight(width, height, degrees);
+				int left = 1;
+				int top = 2;
+				int right = rw - 3;
+				int bottom = rh - 1;
+				int[] argb = reference(FrameEngineTest.frame(width, height, degrees), width, height);
+
+				int[] sensor = CropGeometry.toSensor(width, height, degrees, left, top,
+						right, bottom);
+				int sw = sensor[2] - sensor[0];
+				int sh = sensor[3] - sensor[1];
+				int[] cut = crop(argb, width, sensor[0], sensor[1], sensor[2], sensor[3]);
+				int[] rotatedCut = rotate(cut, sw, sh, degrees);
+
+				int[] whole = rotate(argb, width, height, degrees);
+				assertArrayEquals(width + "x" + height + " " + degrees,
+						crop(whole, rw, left, top, right, bottom), rotatedCut);
+			}
+	}
+
+	@Test
+	public void rejectsCropOutsideFrame() {
+		try {
+			FrameEngine.cropArgb(FrameEngineTest.frame(8, 6, 1), 8, 6, 90, 0, 0, 7, 4,
+					new int[28]);
+			fail("crop outside the rotated frame accepted");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	private static void check(int width, int height, int degrees, int left, int top,
+			int right, int bottom) {
+		byte[] frame = FrameEngineTest.frame(width, height, left * 17 + top + degrees);
+		int[] expected = crop(rotate(reference(frame, width, height), width, height, degrees),
+				FrameEngineTest.rotatedWidth(width, height, degrees), left, top, right, bottom);
+		int[] actual = new int[expected.length];
+		FrameEngine.cropArgb(frame, width, height, degrees, left, top, right, bottom, actual);
+
+		String name = width + "x" + height + " " + degrees + " " + left + "," + top
+				+ " - " + right + "," + bottom;
+		for (int i = 0; i < expected.length; i++)
+			for (int shift = 0; shift <= 24; shift += 8) {
+				int e = (expected[i] >>> shift) & 0xFF;
+				int a = (actual[i] >>> shift) & 0xFF;
+				assertTrue(name + " pixel " + i + " " + Integer.toHexString(expected[i])
+						+ " != " + Integer.toHexString(actual[i]),
+						Math.abs(e - a) <= TOLERANCE);
+			}
+	}
+
+	/** Whole NV21 frame to ARGB, full range BT.601 in floating point */
+	static int[] reference(byte[] frame, int width, int height) {
+		int[] argb = new int[width * height];
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++) {
+				int uv = width * height + (y / 2) * width + (x / 2) * 2;
+				float l = frame[y * width + x] & 0xFF;
+				float v = (frame[uv] & 0xFF) - 128;
+				float u = (frame[uv + 1] & 0xFF) - 128;
+				int r = channel(l + 1.402f * v);
+				int g = channel(l - 0.344136f * u - 0.714136f * v);
+				int b = channel(l + 1.772f * u);
+				argb[y * width + x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+			}
+		return argb;
+	}
+
+	/** Clockwise rotation of a width x height image, 90 degrees at a time */
+	private static int[] rotate(int[] image, int width, int height, int degrees) {
+		int w = width;
+		int h = height;
+		for (int turn = 0; turn < degrees / 90; turn++) {
+			int[] rotated = new int[image.length];
+			for (int y = 0; y < h; y++)
+				for (int x = 0; x < w; x++)
+					rotated[x * h + (h - 1 - y)] = image[y * w + x];
+			image = rotated;
+			int swap = w;
+			w = h;
+			h = swap;
+		}
+		return image;
+	}
+
+	private static int[] crop(int[] image, int width, int left, int top, int right,
+			int bottom) {
+		int[] crop = new int[(right - left) * (bottom - top)];
+		for (int y = top, o = 0; y < bottom; y++)
+			for (int x = left; x < right; x++)
+				crop[o++] = image[y * width + x];
+		return crop;
+	}
+
+	private static int channel(float value) {
+		int c = Math.round(value);
+		return c < 0 ? 0 : c > 255 ? 255 : c;
+	}
+}
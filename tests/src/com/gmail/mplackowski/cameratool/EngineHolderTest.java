@@ -0,0 +1,133 @@
+package com.gmail.mplackowski.cameratool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Engine initialization of {@link EngineHolder}: failed installs and inits
+ * stop the initializer, are recorded and reported, and let waiting workers
+ * go instead of blocking them.
+ */
+public class EngineHolderTest {
+
+	private static final long TIMEOUT = 5000;
+
+	@Test
+	public void lendsInitializedEngines() throws Exception {
+		Engines engines = new Engines(true);
+		EngineHolder holder = new EngineHolder(engines, null, "eng");
+		holder.warmUp(2);
+		OcrEngine first = holder.acquire();
+		OcrEngine second = holder.acquire();
+
+		assertNotNull(first);
+		assertNotNull(second);
+		assertEquals(2, holder.ready());
+		assertNull(holder.error());
+		holder.release(first);
+		holder.release(second);
+		holder.shutdown();
+		assertEquals(2, engines.ended.get());
+	}
+
+	@Test
+	public void failedInitEndsEngineAndReleasesWorkers() throws Exception {
+		Engines engines = new Engines(false);
+		EngineHolder holder = new EngineHolder(engines, null, "eng");
+		holder.warmUp(3);
+		long start = System.currentTimeMillis();
+
+		assertNull(holder.acquire());
+		assertTrue(System.currentTimeMillis() - start < TIMEOUT);
+		assertNotNull(holder.error());
+		assertEquals(0, holder.ready());
+		// the first failure stops the initializer
+		assertEquals(1, engines.created.get());
+		assertEquals(1, engines.ended.get());
+		holder.shutdown();
+	}
+
+	@Test
+	public void failedInstallStopsInitializer() throws Exception {
+		FutureTask<Boolean> install = new FutureTask<Boolean>(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				throw new IOException("no space left");
+			}
+		});
+		install.run();
+		checkInstallFailure(install);
+	}
+
+	@Test
+	public void missingDataStopsInitializer() throws Exception {
+		FutureTask<Boolean> install = new FutureTask<Boolean>(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return false;
+			}
+		});
+		install.run();
+		checkInstallFailure(install);
+	}
+
+	private static void checkInstallFailure(FutureTask<Boolean> install)
+			throws InterruptedException {
+		Engines engines = new Engines(true);
+		final AtomicReference<String> reported = new AtomicReference<String>();
+		EngineHolder holder = new EngineHolder(engines, null, "eng", install)
+				.listener(new EngineHolder.Listener() {
+					@Override
+					public void onEngineError(String error) {
+						reported.set(error);
+					}
+				});
+		holder.warmUp(2);
+
+		assertNull(holder.acquire());
+		assertNotNull(holder.error());
+		// the listener is told right after the error is set
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (reported.get() == null && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		assertEquals(holder.error(), reported.get());
+		assertEquals(0, engines.created.get());
+		holder.shutdown();
+	}
+
+	private static class Engines implements OcrEngine.Factory {
+		final AtomicInteger created = new AtomicInteger();
+		final AtomicInteger ended = new AtomicInteger();
+		private final boolean mInitializes;
+
+		Engines(boolean initializes) {
+			mInitializes = initializes;
+		}
+
+		@Override
+		public OcrEngine create() {
+			created.incrementAndGet();
+			return new FakeOcrEngine("text", 80, 0, 0) {
+				@Override
+				public boolean init(String dataPath, String language) {
+					return mInitializes;
+				}
+
+				@Override
+				public void end() {
+					ended.incrementAndGet();
+				}
+			};
+		}
+	}
+}
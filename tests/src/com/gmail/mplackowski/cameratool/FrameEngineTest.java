@@ -0,0 +1,182 @@
+package com.gmail.mplackowski.cameratool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Luma crop and rotation of {@link FrameEngine} against a reference that
+ * rotates the whole luma plane in steps of 90 degrees and then crops it.
+ */
+public class FrameEngineTest {
+
+	private static final int[] ROTATIONS = { 0, 90, 180, 270 };
+	/** Even sizes as NV21 needs them, small ones make edge bugs visible */
+	private static final int[][] SIZES = { { 8, 6 }, { 12, 10 }, { 64, 48 }, { 320, 240 } };
+
+	@Test
+	public void fullFrame() {
+		for (int[] size : SIZES)
+			for (int degrees : ROTATIONS) {
+				int rw = rotatedWidth(size[0], size[1], degrees);
+				int rh = rotatedHeight(size[0], size[1], degrees);
+				check(size[0], size[1], degrees, 0, 0, rw, rh);
+			}
+	}
+
+	@Test
+	public void oddOffsets() {
+		for (int[] size : SIZES)
+			for (int degrees : ROTATIONS) {
+				int rw = rotatedWidth(size[0], size[1], degrees);
+				int rh = rotatedHeight(size[0], size[1], degrees);
+				check(size[0], size[1], degrees, 1, 1, rw - 2, rh - 2);
+				check(size[0], size[1], degrees, 3, 1, rw - 1, rh - 2);
+				check(size[0], size[1], degrees, rw / 2 - 1, rh / 2 + 1, rw / 2 + 2, rh / 2 + 2);
+			}
+	}
+
+	@Test
+	public void frameEdges() {
+		for (int[] size : SIZES)
+			for (int degrees : ROTATIONS) {
+				int rw = rotatedWidth(size[0], size[1], degrees);
+				int rh = rotatedHeight(size[0], size[1], degrees);
+				// single rows and columns along every edge, and the corners
+				check(size[0], size[1], degrees, 0, 0, rw, 1);
+				check(size[0], size[1], degrees, 0, rh - 1, rw, rh);
+				check(size[0], size[1], degrees, 0, 0, 1, rh);
+				check(size[0], size[1], degrees, rw - 1, 0, rw, rh);
+				check(size[0], size[1], degrees, 0, 0, 1, 1);
+				check(size[0], size[1], degrees, rw - 1, rh - 1, rw, rh);
+			}
+	}
+
+	@Test
+	public void randomCrops() {
+		Random random = new Random(7);
+		for (int i = 0; i < 500; i++) {
+			int[] size = SIZES[random.nextInt(SIZES.length)];
+			int degrees = ROTATIONS[random.nextInt(ROTATIONS.length)];
+			int rw = rotatedWidth(size[0], size[1], degrees);
+			int rh = rotatedHeight(size[0], size[1], degrees);
+			int left = random.nextInt(rw);
+			int top = random.nextInt(rh);
+			check(size[0], size[1], degrees, left, top,
+					left + 1 + random.nextInt(rw - left), top + 1 + random.nextInt(rh - top));
+		}
+	}
+
+	@Test
+	public void clampsToFrame() {
+		int width = 64;
+		int height = 48;
+		byte[] frame = frame(width, height, 1);
+		for (int degrees : ROTATIONS) {
+			int rw = rotatedWidth(width, height, degrees);
+			int rh = rotatedHeight(width, height, degrees);
+			FrameEngine engine = new FrameEngine();
+			assertTrue(engine.crop(frame, width, height, degrees, -5, -3, rw + 7, rh + 2));
+			assertEquals(rw, engine.width());
+			assertEquals(rh, engine.height());
+			assertArrayEquals(reference(frame, width, height, degrees, 0, 0, rw, rh),
+					luma(engine));
+		}
+	}
+
+	@Test
+	public void emptyCrop() {
+		byte[] frame = frame(64, 48, 1);
+		FrameEngine engine = new FrameEngine();
+		assertFalse(engine.crop(frame, 64, 48, 90, 10, 10, 10, 20));
+		assertEquals(0, engine.width());
+		assertFalse(engine.crop(frame, 64, 48, 0, 70, 0, 80, 10));
+		assertFalse(engine.crop(frame, new CropGeometry(64, 48, 270, 20, 5, 10, 30)));
+		assertEquals(0, engine.height());
+	}
+
+	@Test
+	public void reusesBuffer() {
+		byte[] frame = frame(64, 48, 1);
+		FrameEngine engine = new FrameEngine();
+		engine.crop(frame, 64, 48, 0, 0, 0, 64, 48);
+		byte[] buffer = engine.luma();
+		engine.crop(frame, 64, 48, 90, 4, 4, 20, 30);
+		assertTrue(buffer == engine.luma());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsOtherRotations() {
+		new FrameEngine().crop(frame(8, 6, 1), 8, 6, 45, 0, 0, 4, 4);
+	}
+
+	/** Both crop paths against the reference */
+	private static void check(int width, int height, int degrees, int left,
+			int top, int right, int bottom) {
+		byte[] frame = frame(width, height, left * 31 + top);
+		byte[] expected = reference(frame, width, height, degrees, left, top, right, bottom);
+		String name = width + "x" + height + " " + degrees + " " + left + "," + top
+				+ " - " + right + "," + bottom;
+
+		FrameEngine engine = new FrameEngine();
+		assertTrue(name, engine.crop(frame, width, height, degrees, left, top, right, bottom));
+		assertEquals(name, right - left, engine.width());
+		assertEquals(name, bottom - top, engine.height());
+		assertArrayEquals(name, expected, luma(engine));
+
+		FrameEngine geometryEngine = new FrameEngine();
+		assertTrue(name, geometryEngine.crop(frame,
+				new CropGeometry(width, height, degrees, left, top, right, bottom)));
+		assertArrayEquals(name, expected, luma(geometryEngine));
+	}
+
+	/** Rotates the whole plane clockwise 90 degrees at a time, then crops */
+	static byte[] reference(byte[] frame, int width, int height, int degrees,
+			int left, int top, int right, int bottom) {
+		byte[] plane = new byte[width * height];
+		System.arraycopy(frame, 0, plane, 0, plane.length);
+		int w = width;
+		int h = height;
+		for (int turn = 0; turn < degrees / 90; turn++) {
+			byte[] rotated = new byte[plane.length];
+			for (int y = 0; y < h; y++)
+				for (int x = 0; x < w; x++)
+					rotated[x * h + (h - 1 - y)] = plane[y * w + x];
+			plane = rotated;
+			int swap = w;
+			w = h;
+			h = swap;
+		}
+		byte[] crop = new byte[(right - left) * (bottom - top)];
+		for (int y = top, o = 0; y < bottom; y++)
+			for (int x = left; x < right; x++)
+				crop[o++] = plane[y * w + x];
+		return crop;
+	}
+
+	/** NV21 frame with distinct luma values, so misplaced pixels show */
+	static byte[] frame(int width, int height, long seed) {
+		byte[] frame = new byte[width * height * 3 / 2];
+		new Random(seed).nextBytes(frame);
+		return frame;
+	}
+
+	private static byte[] luma(FrameEngine engine) {
+		byte[] luma = new byte[engine.width() * engine.height()];
+		System.arraycopy(engine.luma(), 0, luma, 0, luma.length);
+		return luma;
+	}
+
+	static int rotatedWidth(int width, int height, int degrees) {
+		return FrameEngine.isPortrait(degrees) ? height : width;
+	}
+
+	static int rotatedHeight(int width, int height, int degrees) {
+		return FrameEngine.isPortrait(degrees) ? width : height;
+	}
+}
@@ -0,0 +1,175 @@
+package com.gmail.mplackowski.cameratool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Drives the pipeline with synthetic frames and {@link FakeOcrEngine} on a
+ * plain JVM, no Android class may be needed on the way.
+ */
+public class OCRPipelineTest {
+
+	private static final int WIDTH = 64;
+	private static final int HEIGHT = 48;
+	private static final int FRAMES = 20;
+	private static final long TIMEOUT = 5000;
+
+	@Test
+	public void deliversEveryFrameWithOneWorker() throws Exception {
+		Results results = new Results();
+		OCRPipeline pipeline = pipeline(1, results);
+		byte[][] frames = submit(pipeline, 90);
+		results.await(FRAMES);
+		stop(pipeline);
+
+		assertEquals(FRAMES, results.sequences.size());
+		for (int i = 0; i < FRAMES; i++) {
+			assertEquals((long) i, (long) results.sequences.get(i));
+			assertEquals(expectedText(frames[i], 90), results.texts.get(i));
+		}
+	}
+
+	@Test
+	public void deliversInOrderWithSeveralWorkers() throws Exception {
+		Results results = new Results();
+		OCRPipeline pipeline = pipeline(3, results);
+		submit(pipeline, 0);
+		results.await(1);
+		Thread.sleep(100);
+		stop(pipeline);
+
+		List<Long> sequences = results.snapshot();
+		assertTrue(sequences.size() > 0);
+		for (int i = 1; i < sequences.size(); i++)
+			assertTrue("out of order " + sequences, sequences.get(i) > sequences.get(i - 1));
+	}
+
+	@Test
+	public void recognizesWholeCropWithoutRegions() throws Exception {
+		final Results results = new Results();
+		final List<Integer> regions = new ArrayList<Integer>();
+		FrameQueue.Recycler recycler = new FrameQueue.Recycler() {
+			@Override
+			public void recycle(PreviewFrame frame) {
+			}
+		};
+		OCRPipeline pipeline = new OCRPipeline(FakeOcrEngine.factory("ABC", 80, 0, 0), 1,
+				new BlockingFrameQueue(1, 1, recycler), recycler, new OCRPipeline.Callback() {
+					@Override
+					public void onFrameCropped(FrameEngine crop) {
+					}
+
+					@Override
+					public void onTextRegions(FrameEngine crop, int[] boxes, int count) {
+						synchronized (regions) {
+							regions.add(count);
+						}
+					}
+
+					@Override
+					public void onTextRecognized(long sequence, String text, float accuracy) {
+						results.add(sequence, text);
+					}
+				});
+		pipeline.textRegions(CameraInterface.TEXT_EDGE_THRESHOLD,
+				CameraInterface.TEXT_ROW_DENSITY);
+		pipeline.start(null, null);
+		// a flat frame has no edges, the detector finds nothing
+		byte[] data = new byte[FrameBufferPool.nv21Size(WIDTH, HEIGHT)];
+		Arrays.fill(data, (byte) 128);
+		PreviewFrame frame = new PreviewFrame(data);
+		frame.stamp(0, System.nanoTime());
+		frame.setGeometry(new CropGeometry(WIDTH, HEIGHT, 0, 5, 7, 33, 41));
+		pipeline.submit(frame);
+		results.await(1);
+		stop(pipeline);
+
+		synchronized (regions) {
+			assertEquals(Integer.valueOf(0), regions.get(0));
+		}
+		assertEquals("ABC", results.texts.get(0));
+	}
+
+	private static OCRPipeline pipeline(int workers, final Results results) {
+		FrameQueue.Recycler recycler = new FrameQueue.Recycler() {
+			@Override
+			public void recycle(PreviewFrame frame) {
+			}
+		};
+		OCRPipeline pipeline = new OCRPipeline(FakeOcrEngine.factory(null, 80, 1000000, 0),
+				workers, new BlockingFrameQueue(FRAMES, FRAMES, recycler), recycler,
+				new OCRPipeline.Callback() {
+					@Override
+					public void onFrameCropped(FrameEngine crop) {
+					}
+
+					@Override
+					public void onTextRegions(FrameEngine crop, int[] boxes, int count) {
+					}
+
+					@Override
+					public void onTextRecognized(long sequence, String text, float accuracy) {
+						results.add(sequence, text);
+					}
+				});
+		pipeline.start(null, null);
+		return pipeline;
+	}
+
+	private static byte[][] submit(OCRPipeline pipeline, int degrees) {
+		CropGeometry geometry = new CropGeometry(WIDTH, HEIGHT, degrees, 5, 7, 33, 41);
+		byte[][] frames = new byte[FRAMES][];
+		for (int i = 0; i < FRAMES; i++) {
+			frames[i] = FrameEngineTest.frame(WIDTH, HEIGHT, i);
+			PreviewFrame frame = new PreviewFrame(frames[i]);
+			frame.stamp(i, System.nanoTime());
+			frame.setGeometry(geometry);
+			pipeline.submit(frame);
+		}
+		return frames;
+	}
+
+	private static void stop(OCRPipeline pipeline) throws InterruptedException {
+		pipeline.stop();
+		assertTrue(pipeline.awaitTermination(TIMEOUT));
+	}
+
+	/** Text the fake engine returns for the crop, after the default cleanup */
+	private static String expectedText(byte[] frame, int degrees) {
+		FrameEngine crop = new FrameEngine();
+		crop.crop(frame, new CropGeometry(WIDTH, HEIGHT, degrees, 5, 7, 33, 41));
+		FakeOcrEngine engine = new FakeOcrEngine(null, 80, 0, 0);
+		engine.setImage(crop.luma(), crop.width(), crop.height());
+		return TextPostProcessor.alphanumeric().process(engine.getText());
+	}
+
+	private static class Results {
+		final List<Long> sequences = new ArrayList<Long>();
+		final List<String> texts = new ArrayList<String>();
+
+		synchronized void add(long sequence, String text) {
+			sequences.add(sequence);
+			texts.add(text);
+			notifyAll();
+		}
+
+		synchronized void await(int count) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + TIMEOUT;
+			while (sequences.size() < count) {
+				long remaining = deadline - System.currentTimeMillis();
+				assertTrue("timed out with " + sequences.size() + " results", remaining > 0);
+				wait(remaining);
+			}
+		}
+
+		synchronized List<Long> snapshot() {
+			return new ArrayList<Long>(sequences);
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package com.gmail.mplackowski.cameratool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Frame gating of {@link RateController}: the load signal is only read
+ * when a worker records a latency, accept only reads the last sample.
+ */
+public class RateControllerTest {
+
+	private static final long MILLI = 1000000L;
+
+	@Test
+	public void acceptDoesNotReadLoad() {
+		Load load = new Load(0.5f);
+		RateController rate = new RateController(RateController.Policy.MAX_THROUGHPUT,
+				5f, 1, load);
+		for (int i = 0; i < 100; i++)
+			rate.accept(i * MILLI);
+		assertEquals(0, load.reads.get());
+	}
+
+	@Test
+	public void workersApplyLoad() {
+		Load load = new Load(0f);
+		RateController rate = new RateController(RateController.Policy.MAX_THROUGHPUT,
+				5f, 1, load);
+		rate.recordLatency(100 * MILLI);
+		assertEquals(1, load.reads.get());
+		assertTrue(rate.accept(MILLI));
+		assertTrue(rate.accept(101 * MILLI));
+		assertEquals(100 * MILLI, rate.intervalNanos());
+
+		// full load stretches the interval, once a worker sampled it
+		load.value = 1f;
+		rate.recordLatency(100 * MILLI);
+		assertFalse(rate.accept(201 * MILLI));
+		assertEquals((long) (100 * MILLI * RateController.MAX_LOAD_SLOWDOWN),
+				rate.intervalNanos());
+		assertTrue(rate.accept(501 * MILLI));
+	}
+
+	private static class Load implements LoadSignal {
+		final AtomicInteger reads = new AtomicInteger();
+		volatile float value;
+
+		Load(float value) {
+			this.value = value;
+		}
+
+		@Override
+		public float load() {
+			reads.incrementAndGet();
+			return value;
+		}
+	}
+}